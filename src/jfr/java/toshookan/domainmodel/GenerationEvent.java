@@ -0,0 +1,70 @@
+package toshookan.domainmodel;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event committed for every measured step of a generator
+ * run.
+ * <p>
+ * The class is compiled from the jfr source set so the main classes build
+ * against a Java 8 class library without jdk.jfr. GenerationMetrics looks it
+ * up at runtime and commits no events when it is missing or the JVM does not
+ * provide JFR. Record with <code>-XX:StartFlightRecording</code> and filter on
+ * toshookan.Generation.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+@Name("toshookan.Generation")
+@Label("Generation Step")
+@Category("toshookan")
+@Description("A measured step of a code generation run")
+@StackTrace(false)
+class GenerationEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Subject")
+    @Description("The entity or file the step worked on")
+    String subject;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Commits an event if the event is enabled in a running recording.
+     *
+     * @param phase
+     *            the name of the phase.
+     * @param subject
+     *            the entity or file.
+     * @param elapsed
+     *            the duration of the step in nanoseconds.
+     * @param bytes
+     *            the number of bytes written.
+     */
+    static void commit(String phase, String subject, long elapsed, long bytes) {
+
+        GenerationEvent event = new GenerationEvent();
+
+        if (event.isEnabled()) {
+            event.phase = phase;
+            event.subject = subject;
+            event.elapsed = elapsed;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package toshookan.domainmodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the phases of a generator run against synthetic models.
+ * <p>
+ * Every phase is measured in isolation, the inputs of a phase are prepared
+ * during the setup: parsing the XML, creating the entity contexts, merging the
+ * entity template, interpreted by Velocity and compiled, and writing the
+ * output. A further benchmark runs the whole
+ * generator without writing. One operation processes the whole model, so the
+ * throughput multiplied by the number of entities is the number of entities
+ * per second. Run with <code>-prof gc</code> to report the allocation rate.
+ * <p>
+ * The templates are loaded from the directory named by the
+ * toshookan.templateRoot system property, src/main/resources/ by default.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GeneratorBenchmark {
+
+	private static final String TEMPLATE_ROOT = System.getProperty(
+			"toshookan.templateRoot", "src/main/resources/");
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/*
+	 * The number of distinct file contents written by the write benchmarks,
+	 * rendering every entity up front would not fit the heap for the largest
+	 * models.
+	 */
+	private static final int DISTINCT_CONTENTS = 1000;
+
+	/**
+	 * The synthetic model as XML.
+	 */
+	@State(Scope.Benchmark)
+	public static class ModelXml {
+
+		/**
+		 * The number of entities.
+		 */
+		@Param({ "100", "10000", "100000" })
+		public int entities;
+
+		/**
+		 * The number of values per entity.
+		 */
+		@Param({ "8" })
+		public int valuesPerEntity;
+
+		/**
+		 * The approximate length of every description.
+		 */
+		@Param({ "80" })
+		public int descriptionLength;
+
+		byte[] xml;
+
+		/**
+		 * Generates the XML.
+		 */
+		@Setup
+		public void setUp() {
+			SyntheticDomainModel model = new SyntheticDomainModel();
+			model.setEntities(entities);
+			model.setValuesPerEntity(valuesPerEntity);
+			model.setDescriptionLength(descriptionLength);
+			xml = model.toBytes();
+		}
+
+		/**
+		 * Parses the XML.
+		 * 
+		 * @return the parsed model.
+		 * @throws Exception
+		 *             when the XML can not be parsed.
+		 */
+		DomainModel parse() throws Exception {
+			DomainModelHandler handler = new DomainModelHandler();
+			handler.parse(new ByteArrayInputStream(xml));
+			return handler.getDomainModel();
+		}
+	}
+
+	/**
+	 * The parsed synthetic model.
+	 */
+	@State(Scope.Benchmark)
+	public static class Model {
+
+		DomainModel model;
+		Date createDate;
+
+		/**
+		 * Parses the model.
+		 * 
+		 * @param xml
+		 *            the model as XML.
+		 * @throws Exception
+		 *             when the model can not be parsed.
+		 */
+		@Setup
+		public void setUp(ModelXml xml) throws Exception {
+			model = xml.parse();
+			createDate = new Date(0);
+		}
+	}
+
+	/**
+	 * The entity contexts of the synthetic model and the entity template.
+	 */
+	@State(Scope.Benchmark)
+	public static class Contexts {
+
+		List<VelocityContext> contexts;
+		Template template;
+		CompiledTemplate compiled;
+
+		/**
+		 * Creates the contexts, loads and compiles the template.
+		 * 
+		 * @param model
+		 *            the parsed model.
+		 * @throws Exception
+		 *             when the template can not be loaded.
+		 */
+		@Setup
+		public void setUp(Model model) throws Exception {
+
+			Map<String, Object> context;
+			VelocityEngine engine;
+
+			engine = createEngine();
+			template = engine.getTemplate("entity.vm");
+			compiled = CompiledTemplate.compile(template, engine);
+			contexts = new ArrayList<VelocityContext>(model.model
+					.getEntities().size());
+			for (Entity entity : model.model.getEntities()) {
+				context = VelocityDomainModelCodeGenerator.createEntityContext(
+						entity, VelocityDomainModelCodeGenerator
+								.isSuperClassEntity(entity, model.model),
+						model.createDate);
+				context.put("reflectiveObjectMethods", Boolean.FALSE);
+				contexts.add(new VelocityContext(context));
+			}
+		}
+	}
+
+	/**
+	 * Rendered files and the directory they are written to.
+	 */
+	@State(Scope.Benchmark)
+	public static class Output {
+
+		List<byte[]> contents;
+		List<String> fileNames;
+		Path root;
+
+		/**
+		 * Renders the first entities and creates the output directory.
+		 * 
+		 * @param model
+		 *            the parsed model.
+		 * @throws Exception
+		 *             when the template can not be merged.
+		 */
+		@Setup
+		public void setUp(Model model) throws Exception {
+
+			Template template;
+			StringWriter writer;
+			Map<String, Object> context;
+
+			template = createEngine().getTemplate("entity.vm");
+			contents = new ArrayList<byte[]>();
+			fileNames = new ArrayList<String>();
+			int i = 0;
+			for (Entity entity : model.model.getEntities()) {
+				context = VelocityDomainModelCodeGenerator.createEntityContext(
+						entity, VelocityDomainModelCodeGenerator
+								.isSuperClassEntity(entity, model.model),
+						model.createDate);
+				if (i++ < DISTINCT_CONTENTS) {
+					context.put("reflectiveObjectMethods", Boolean.FALSE);
+					writer = new StringWriter();
+					template.merge(new VelocityContext(context), writer);
+					contents.add(writer.toString().getBytes(UTF_8));
+				}
+				fileNames.add("src/"
+						+ context.get(VelocityDomainModelCodeGenerator.CONTEXT_CODE_FILE_NAME));
+			}
+			root = Files.createTempDirectory("toshookan-jmh");
+		}
+
+		/**
+		 * Deletes the output directory.
+		 * 
+		 * @throws IOException
+		 *             when the directory can not be deleted.
+		 */
+		@TearDown
+		public void tearDown() throws IOException {
+			delete(root);
+		}
+	}
+
+	/**
+	 * Measures parsing the XML into a DomainModel.
+	 * 
+	 * @param xml
+	 *            the model as XML.
+	 * @return the parsed model.
+	 * @throws Exception
+	 *             when the XML can not be parsed.
+	 */
+	@Benchmark
+	public DomainModel parse(ModelXml xml) throws Exception {
+		return xml.parse();
+	}
+
+	/**
+	 * Measures creating the context of every entity.
+	 * 
+	 * @param model
+	 *            the parsed model.
+	 * @return the number of context entries, so the contexts are not
+	 *         eliminated.
+	 */
+	@Benchmark
+	public int createEntityContext(Model model) {
+
+		int entries = 0;
+
+		for (Entity entity : model.model.getEntities()) {
+			entries += VelocityDomainModelCodeGenerator.createEntityContext(
+					entity, VelocityDomainModelCodeGenerator.isSuperClassEntity(
+							entity, model.model), model.createDate).size();
+		}
+		return entries;
+	}
+
+	/**
+	 * Measures merging the entity template of every entity.
+	 * 
+	 * @param contexts
+	 *            the entity contexts.
+	 * @return the number of characters rendered.
+	 * @throws Exception
+	 *             when the template can not be merged.
+	 */
+	@Benchmark
+	public long merge(Contexts contexts) throws Exception {
+
+		CountingWriter writer = new CountingWriter();
+
+		for (VelocityContext context : contexts.contexts) {
+			contexts.template.merge(context, writer);
+		}
+		return writer.count;
+	}
+
+	/**
+	 * Measures merging the compiled entity template of every entity.
+	 * 
+	 * @param contexts
+	 *            the entity contexts.
+	 * @return the number of characters rendered.
+	 * @throws Exception
+	 *             when the template can not be merged.
+	 */
+	@Benchmark
+	public long mergeCompiled(Contexts contexts) throws Exception {
+
+		CountingWriter writer = new CountingWriter();
+
+		for (VelocityContext context : contexts.contexts) {
+			contexts.compiled.merge(context, writer);
+		}
+		return writer.count;
+	}
+
+	/**
+	 * Measures writing a new file per entity into an empty directory.
+	 * 
+	 * @param output
+	 *            the rendered output.
+	 * @throws IOException
+	 *             when the files can not be written.
+	 */
+	@Benchmark
+	public void writeNew(Output output) throws IOException {
+		delete(output.root);
+		write(output);
+	}
+
+	/**
+	 * Measures rewriting unchanged files, which compares the content of every
+	 * file and writes nothing.
+	 * 
+	 * @param output
+	 *            the rendered output.
+	 * @throws IOException
+	 *             when the files can not be read.
+	 */
+	@Benchmark
+	public void writeUnchanged(Output output) throws IOException {
+		write(output);
+	}
+
+	/**
+	 * Measures a complete generator run, including the context creation of
+	 * every artifact, without writing the output.
+	 * 
+	 * @param model
+	 *            the parsed model.
+	 * @throws Exception
+	 *             when the generation fails.
+	 */
+	@Benchmark
+	public void execute(Model model) throws Exception {
+
+		VelocityDomainModelCodeGenerator generator;
+
+		generator = new VelocityDomainModelCodeGenerator(model.model,
+				TEMPLATE_ROOT, Runtime.getRuntime().availableProcessors());
+		generator.setCreateDate(model.createDate);
+		generator.setOutputSink(new OutputSink() {
+			public void write(String fileName, byte[] content) {
+				// discard
+			}
+		});
+		generator.execute();
+	}
+
+	/**
+	 * Writes a file per entity with FileOutputSink.
+	 * 
+	 * @param output
+	 *            the rendered output.
+	 * @throws IOException
+	 *             when the files can not be written.
+	 */
+	private static void write(Output output) throws IOException {
+
+		OutputSink sink = new FileOutputSink(output.root);
+
+		for (int i = 0; i < output.fileNames.size(); ++i) {
+			sink.write(output.fileNames.get(i),
+					output.contents.get(i % output.contents.size()));
+		}
+	}
+
+	/**
+	 * Creates a Velocity engine on the template root, discarding the log.
+	 * 
+	 * @return the initialized engine.
+	 * @throws Exception
+	 *             when the engine can not be initialized.
+	 */
+	static VelocityEngine createEngine() throws Exception {
+
+		VelocityEngine engine = new VelocityEngine();
+
+		engine.setProperty(VelocityEngine.RUNTIME_LOG_LOGSYSTEM_CLASS,
+				"org.apache.velocity.runtime.log.NullLogSystem");
+		engine.setProperty(VelocityEngine.FILE_RESOURCE_LOADER_PATH,
+				TEMPLATE_ROOT);
+		engine.init();
+		return engine;
+	}
+
+	/**
+	 * Deletes a directory and its content if it exists.
+	 * 
+	 * @param root
+	 *            the directory to delete.
+	 * @throws IOException
+	 *             when a file can not be deleted.
+	 */
+	static void delete(Path root) throws IOException {
+
+		if (!Files.exists(root)) {
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult postVisitDirectory(Path dir,
+					IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Counts the characters written and discards them.
+	 */
+	static final class CountingWriter extends Writer {
+
+		long count;
+
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		public void write(String str, int off, int len) {
+			count += len;
+		}
+
+		public void flush() {
+		}
+
+		public void close() {
+		}
+	}
+}
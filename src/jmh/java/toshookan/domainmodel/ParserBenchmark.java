@@ -0,0 +1,138 @@
+package toshookan.domainmodel;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of parsing a synthetic model with the pooled parsers of
+ * DefaultHandler and with a parser factory looked up and a parser created
+ * for every document.
+ * <p>
+ * Both variants parse the same XML into a DomainModelHandler, they only
+ * differ in where the parser comes from. The lookup and creation cost is
+ * fixed per document, so the difference is largest for the small models. The
+ * concurrent variants parse on several threads at once, the pooled parsers are
+ * shared between the threads.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+	/**
+	 * The number of entities.
+	 */
+	@Param({ "1", "10", "1000" })
+	public int entities;
+
+	byte[] xml;
+
+	/**
+	 * Generates the XML.
+	 */
+	@Setup
+	public void setUp() {
+		SyntheticDomainModel model = new SyntheticDomainModel();
+		model.setEntities(entities);
+		xml = model.toBytes();
+	}
+
+	/**
+	 * Measures parsing with a pooled parser.
+	 *
+	 * @return the parsed model.
+	 * @throws Exception
+	 *             when the XML can not be parsed.
+	 */
+	@Benchmark
+	public DomainModel pooledParser() throws Exception {
+		return parsePooled();
+	}
+
+	/**
+	 * Measures parsing with a new factory and parser per document.
+	 *
+	 * @return the parsed model.
+	 * @throws Exception
+	 *             when the XML can not be parsed.
+	 */
+	@Benchmark
+	public DomainModel freshParser() throws Exception {
+		return parseFresh();
+	}
+
+	/**
+	 * Measures parsing with pooled parsers on several threads.
+	 *
+	 * @return the parsed model.
+	 * @throws Exception
+	 *             when the XML can not be parsed.
+	 */
+	@Benchmark
+	@Threads(4)
+	public DomainModel pooledParserConcurrent() throws Exception {
+		return parsePooled();
+	}
+
+	/**
+	 * Measures parsing with a new factory and parser per document on several
+	 * threads.
+	 *
+	 * @return the parsed model.
+	 * @throws Exception
+	 *             when the XML can not be parsed.
+	 */
+	@Benchmark
+	@Threads(4)
+	public DomainModel freshParserConcurrent() throws Exception {
+		return parseFresh();
+	}
+
+	/**
+	 * Parses the XML the way the generator does.
+	 *
+	 * @return the parsed model.
+	 * @throws Exception
+	 *             when the XML can not be parsed.
+	 */
+	private DomainModel parsePooled() throws Exception {
+		DomainModelHandler handler = new DomainModelHandler();
+		handler.parse(new ByteArrayInputStream(xml));
+		return handler.getDomainModel();
+	}
+
+	/**
+	 * Parses the XML the way DefaultHandler did before the parsers were
+	 * pooled.
+	 *
+	 * @return the parsed model.
+	 * @throws Exception
+	 *             when the XML can not be parsed.
+	 */
+	private DomainModel parseFresh() throws Exception {
+		DomainModelHandler handler = new DomainModelHandler();
+		SAXParserFactory.newInstance().newSAXParser()
+				.parse(new ByteArrayInputStream(xml), handler);
+		return handler.getDomainModel();
+	}
+}
@@ -0,0 +1,198 @@
+package toshookan.domainmodel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the String and the Appendable variants of the StringUtil
+ * methods.
+ * <p>
+ * Every String variant is paired with its Appendable variant writing into a
+ * builder that is reused across operations. Run with <code>-prof gc</code>,
+ * the gc.alloc.rate.norm of the Appendable variants is close to zero bytes
+ * per operation. The wrap benchmarks only allocate the lines themselves.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class StringUtilBenchmark {
+
+	private static final StringUtil.CharClass SPECIAL = StringUtil.CharClass
+			.of(StringUtil.SPECIAL_CHARACTERS);
+
+	String name;
+	String text;
+	String description;
+	String[] words;
+	StringBuilder builder;
+	List<String> lines;
+
+	/**
+	 * Creates the inputs and the reused destinations.
+	 */
+	@Setup
+	public void setUp() {
+		name = "customerAccountBillingAddressLine";
+		text = "The  quick brown\t\tfox jumps   over the lazy dog;  twice";
+		description = "The amount billed to the customer account for the period,"
+				+ " including taxes and any discounts that were granted when the"
+				+ " invoice was created.\nThe amount is rounded to cents and"
+				+ " never negative, refunds are recorded as separate entries.";
+		words = text.split(" +");
+		builder = new StringBuilder(512);
+		lines = new ArrayList<String>();
+	}
+
+	/**
+	 * Measures searching with the characters as a String.
+	 *
+	 * @return the index found.
+	 */
+	@Benchmark
+	public int indexOfAnyString() {
+		return StringUtil.indexOfAny(text, StringUtil.SPECIAL_CHARACTERS, 0);
+	}
+
+	/**
+	 * Measures searching with the characters as a CharClass.
+	 *
+	 * @return the index found.
+	 */
+	@Benchmark
+	public int indexOfAnyCharClass() {
+		return StringUtil.indexOfAny(text, SPECIAL, 0);
+	}
+
+	/**
+	 * Measures joining into a new String.
+	 *
+	 * @return the joined string.
+	 */
+	@Benchmark
+	public String joinString() {
+		return StringUtil.join(words, ", ");
+	}
+
+	/**
+	 * Measures joining into a reused builder.
+	 *
+	 * @return the builder.
+	 * @throws IOException
+	 *             never.
+	 */
+	@Benchmark
+	public StringBuilder joinAppendable() throws IOException {
+		builder.setLength(0);
+		return StringUtil.join(builder, words, ", ");
+	}
+
+	/**
+	 * Measures padding into a new String.
+	 *
+	 * @return the padded string.
+	 */
+	@Benchmark
+	public String padString() {
+		return StringUtil.pad(name, ' ', -48);
+	}
+
+	/**
+	 * Measures padding into a reused builder.
+	 *
+	 * @return the builder.
+	 * @throws IOException
+	 *             never.
+	 */
+	@Benchmark
+	public StringBuilder padAppendable() throws IOException {
+		builder.setLength(0);
+		return StringUtil.pad(builder, name, ' ', -48);
+	}
+
+	/**
+	 * Measures truncating into a new String.
+	 *
+	 * @return the truncated string.
+	 */
+	@Benchmark
+	public String truncString() {
+		return StringUtil.trunc(text, 20);
+	}
+
+	/**
+	 * Measures truncating into a reused builder.
+	 *
+	 * @return the builder.
+	 * @throws IOException
+	 *             never.
+	 */
+	@Benchmark
+	public StringBuilder truncAppendable() throws IOException {
+		builder.setLength(0);
+		return StringUtil.trunc(builder, text, 20);
+	}
+
+	/**
+	 * Measures squeezing into a new String.
+	 *
+	 * @return the squeezed string.
+	 */
+	@Benchmark
+	public String squeezeString() {
+		return StringUtil.squeeze(text);
+	}
+
+	/**
+	 * Measures squeezing into a reused builder.
+	 *
+	 * @return the builder.
+	 * @throws IOException
+	 *             never.
+	 */
+	@Benchmark
+	public StringBuilder squeezeAppendable() throws IOException {
+		builder.setLength(0);
+		return StringUtil.squeeze(builder, text);
+	}
+
+	/**
+	 * Measures splitting a description into javadoc lines the way the
+	 * generator does.
+	 *
+	 * @return the lines.
+	 */
+	@Benchmark
+	public List<String> splitDescription() {
+		return VelocityDomainModelCodeGenerator.splitDescription(72,
+				description);
+	}
+
+	/**
+	 * Measures wrapping a description into a reused list.
+	 *
+	 * @return the lines.
+	 */
+	@Benchmark
+	public List<String> wrap() {
+		lines.clear();
+		return StringUtil.wrap(description, 72, "<p>", lines);
+	}
+}
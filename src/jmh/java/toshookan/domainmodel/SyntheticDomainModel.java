@@ -0,0 +1,187 @@
+package toshookan.domainmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates a synthetic domainModel.xml of a configurable size.
+ * <p>
+ * The model is derived from a fixed seed so every run of a benchmark sees the
+ * same document. The value types cycle through primitives, boxed types, dates,
+ * arrays and nested generic types so every branch of the context creation is
+ * exercised.
+ * <p>
+ * Usage: <code>SyntheticDomainModel file entities [values [descriptionLength]]</code>
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class SyntheticDomainModel {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String[] VALUE_TYPES = { "String", "int", "long",
+			"boolean", "double", "Integer", "Long", "java.util.Date", "byte[]",
+			"java.util.List<String>",
+			"java.util.Map<String, java.util.List<Long>>" };
+
+	private static final String[] WORDS = { "the", "value", "of", "an",
+			"entity", "which", "is", "generated", "from", "model", "and",
+			"describes", "identifier", "account", "customer", "order" };
+
+	private int entities = 100;
+	private int valuesPerEntity = 8;
+	private int descriptionLength = 80;
+	private long seed = 42;
+
+	/**
+	 * Writes a synthetic model to a file.
+	 * 
+	 * @param args
+	 *            the file, the number of entities and optionally the number of
+	 *            values per entity and the description length.
+	 * @throws IOException
+	 *             when the file can not be written.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		SyntheticDomainModel model;
+
+		if (args.length < 2) {
+			System.err.println("Usage: SyntheticDomainModel file entities"
+					+ " [values [descriptionLength]]");
+			return;
+		}
+		model = new SyntheticDomainModel();
+		model.setEntities(Integer.parseInt(args[1]));
+		if (args.length > 2) {
+			model.setValuesPerEntity(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3) {
+			model.setDescriptionLength(Integer.parseInt(args[3]));
+		}
+		Files.write(new File(args[0]).toPath(), model.toBytes());
+	}
+
+	/**
+	 * Generates the model as UTF-8 encoded XML.
+	 * 
+	 * @return the XML document.
+	 */
+	public byte[] toBytes() {
+		return toXml().getBytes(UTF_8);
+	}
+
+	/**
+	 * Generates the model as XML.
+	 * 
+	 * @return the XML document.
+	 */
+	public String toXml() {
+
+		StringBuilder xml;
+		Random random;
+
+		random = new Random(seed);
+		xml = new StringBuilder(entities * valuesPerEntity
+				* (descriptionLength + 96));
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<domainModel>\n\t<entities>\n");
+		for (int i = 0; i < entities; ++i) {
+			xml.append("\t\t<entity name=\"Entity").append(i)
+					.append("\" package=\"com.toshookan.p").append(i % 100)
+					.append("\">\n");
+			appendDescription(xml, "entity-description", random);
+			xml.append("\t\t\t<values>\n");
+			for (int j = 0; j < valuesPerEntity; ++j) {
+				xml.append("\t\t\t\t<value name=\"value").append(j)
+						.append("\" class=\"")
+						.append(escape(VALUE_TYPES[(i + j) % VALUE_TYPES.length]))
+						.append("\">\n");
+				appendDescription(xml, "value-description", random);
+				xml.append("\t\t\t\t</value>\n");
+			}
+			xml.append("\t\t\t</values>\n\t\t</entity>\n");
+		}
+		xml.append("\t</entities>\n</domainModel>\n");
+		return xml.toString();
+	}
+
+	/**
+	 * Appends a description element of random words.
+	 * 
+	 * @param xml
+	 *            the document to append to.
+	 * @param tag
+	 *            the name of the element.
+	 * @param random
+	 *            the source of the words.
+	 */
+	private void appendDescription(StringBuilder xml, String tag,
+			Random random) {
+
+		int length;
+
+		xml.append("\t\t\t<").append(tag).append(">\n\t\t\t\t");
+		length = 0;
+		while (length < descriptionLength) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			xml.append(word).append(' ');
+			length += word.length() + 1;
+		}
+		xml.append("\n\t\t\t</").append(tag).append(">\n");
+	}
+
+	/**
+	 * Escapes the characters of a class name that are special in XML.
+	 * 
+	 * @param string
+	 *            the class name.
+	 * @return the escaped class name.
+	 */
+	private static String escape(String string) {
+		return string.replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	/**
+	 * Setter method for entities.
+	 * 
+	 * @param entities
+	 *            the number of entities.
+	 */
+	public void setEntities(int entities) {
+		this.entities = entities;
+	}
+
+	/**
+	 * Setter method for valuesPerEntity.
+	 * 
+	 * @param valuesPerEntity
+	 *            the number of values of every entity.
+	 */
+	public void setValuesPerEntity(int valuesPerEntity) {
+		this.valuesPerEntity = valuesPerEntity;
+	}
+
+	/**
+	 * Setter method for descriptionLength.
+	 * 
+	 * @param descriptionLength
+	 *            the approximate number of characters of every description.
+	 */
+	public void setDescriptionLength(int descriptionLength) {
+		this.descriptionLength = descriptionLength;
+	}
+
+	/**
+	 * Setter method for seed.
+	 * 
+	 * @param seed
+	 *            the seed of the random words.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+}
@@ -0,0 +1,452 @@
+package toshookan.domainmodel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the generated files into a single zip or jar archive instead of a
+ * directory tree.
+ * <p>
+ * Each file is compressed by the thread that hands it to the sink, so with
+ * several worker threads the entries are deflated in parallel. Hand the files
+ * to the sink directly rather than through an AsyncOutputSink, which would
+ * compress them on its few I/O threads. The compressed entries are appended
+ * to a spill file next to the archive as they arrive, only their names and
+ * positions are kept in memory. {@link #close()} copies them into the archive
+ * sorted by name, all with the same timestamp, so the same model and templates
+ * always produce a byte for byte identical archive whatever the number of
+ * threads. The archive replaces the target file atomically when possible.
+ * If the generation fails call {@link #abort()} instead, which deletes the
+ * spill file and leaves an existing archive unchanged.
+ * <p>
+ * The archive is written in the zip format, switching to zip64 when it holds
+ * more than 65535 entries or grows beyond 4 GB.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class ArchiveOutputSink implements OutputSink, Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /*
+     * General purpose flag bit 11: the entry name is encoded as UTF-8.
+     */
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private final Path archive;
+    private final boolean compressed;
+    private final int dosTime;
+    private final Map<String, Entry> entries;
+    private FileChannel spill;
+    private Path spillFile;
+    private long spillSize;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for class ArchiveOutputSink, creating a compressed archive
+     * whose entries are dated 1980-01-01, the earliest zip timestamp.
+     *
+     * @param archive
+     *            the archive file.
+     */
+    public ArchiveOutputSink(Path archive) {
+        this(archive, true, 315532800000L);
+    }
+
+    /**
+     * Constructor for class ArchiveOutputSink.
+     *
+     * @param archive
+     *            the archive file.
+     * @param compressed
+     *            true to deflate the entries, false to store them.
+     * @param entryTime
+     *            the modification time of every entry in milliseconds since
+     *            the epoch, interpreted in UTC.
+     */
+    public ArchiveOutputSink(Path archive, boolean compressed, long entryTime) {
+        this.archive = archive;
+        this.compressed = compressed;
+        this.dosTime = toDosTime(entryTime);
+        this.entries = new TreeMap<String, Entry>();
+    }
+
+    /**
+     * Compresses the file and appends it to the spill file until the archive
+     * is written.
+     *
+     * @param fileName
+     * @param content
+     * @throws IOException
+     *             when the archive has already been written or discarded.
+     * @see toshookan.domainmodel.OutputSink#write(java.lang.String, byte[])
+     */
+    public void write(String fileName, byte[] content) throws IOException {
+
+        Entry entry;
+        CRC32 crc;
+        byte[] data;
+
+        checkOpen();
+        entry = new Entry();
+        entry.name = fileName.getBytes(UTF_8);
+        entry.size = content.length;
+        crc = new CRC32();
+        crc.update(content);
+        entry.crc = crc.getValue();
+        data = compressed ? deflate(content) : content;
+        entry.compressedSize = data.length;
+        entry.method = compressed ? METHOD_DEFLATED : METHOD_STORED;
+        synchronized (this) {
+            checkOpen();
+            if (spill == null) {
+                Path dir = archive.toAbsolutePath().getParent();
+                Files.createDirectories(dir);
+                spillFile = Files.createTempFile(dir, archive.getFileName()
+                        .toString(), ".spill");
+                spill = FileChannel.open(spillFile, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            entry.spillOffset = spillSize;
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                spill.write(buffer, spillSize + buffer.position());
+            }
+            spillSize += data.length;
+            entries.put(fileName, entry);
+        }
+    }
+
+    /**
+     * Fails when the archive has already been written or discarded.
+     *
+     * @throws IOException
+     *             when the archive has already been written or discarded.
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The archive " + archive
+                    + " has already been written or discarded");
+        }
+    }
+
+    /**
+     * Writes the archive with the entries sorted by name.
+     *
+     * @throws IOException
+     *             when the archive can not be written.
+     * @see java.io.Closeable#close()
+     */
+    public synchronized void close() throws IOException {
+
+        Path temp;
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            Files.createDirectories(archive.toAbsolutePath().getParent());
+            temp = FileOutputSink.createTempFile(archive);
+            try {
+                OutputStream out = new BufferedOutputStream(
+                        Files.newOutputStream(temp), 65536);
+                try {
+                    writeArchive(out);
+                }
+                finally {
+                    out.close();
+                }
+                FileOutputSink.replace(temp, archive);
+            }
+            finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        finally {
+            entries.clear();
+            deleteSpill();
+        }
+    }
+
+    /**
+     * Discards the entries without writing the archive, an existing archive
+     * is left unchanged. Does nothing once the archive has been written or
+     * discarded.
+     *
+     * @throws IOException
+     *             when the spill file can not be deleted.
+     */
+    public synchronized void abort() throws IOException {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+        entries.clear();
+        deleteSpill();
+    }
+
+    /**
+     * Closes and deletes the spill file, if one has been created.
+     *
+     * @throws IOException
+     *             when the spill file can not be closed or deleted.
+     */
+    private void deleteSpill() throws IOException {
+        if (spill != null) {
+            try {
+                spill.close();
+            }
+            finally {
+                Files.deleteIfExists(spillFile);
+            }
+        }
+    }
+
+    /**
+     * Writes the local entries followed by the central directory.
+     *
+     * @param out
+     *            the archive stream.
+     * @throws IOException
+     *             when the archive can not be written.
+     */
+    private void writeArchive(OutputStream out) throws IOException {
+
+        long offset = 0;
+        long directoryOffset;
+        long directorySize = 0;
+        ByteArrayOutputStream header;
+        ByteBuffer buffer;
+
+        header = new ByteArrayOutputStream(256);
+        buffer = ByteBuffer.allocate(65536);
+        for (Entry entry : entries.values()) {
+            entry.offset = offset;
+            header.reset();
+            writeInt(header, 0x04034b50);
+            writeShort(header, 20);
+            writeShort(header, FLAG_UTF8);
+            writeShort(header, entry.method);
+            writeInt(header, dosTime);
+            writeInt(header, (int) entry.crc);
+            writeInt(header, entry.compressedSize);
+            writeInt(header, entry.size);
+            writeShort(header, entry.name.length);
+            writeShort(header, 0);
+            header.write(entry.name);
+            header.writeTo(out);
+            copySpill(entry, buffer, out);
+            offset += header.size() + entry.compressedSize;
+        }
+
+        directoryOffset = offset;
+        for (Entry entry : entries.values()) {
+            boolean zip64 = entry.offset >= ZIP64_MAGIC;
+            header.reset();
+            writeInt(header, 0x02014b50);
+            writeShort(header, zip64 ? 45 : 20);
+            writeShort(header, zip64 ? 45 : 20);
+            writeShort(header, FLAG_UTF8);
+            writeShort(header, entry.method);
+            writeInt(header, dosTime);
+            writeInt(header, (int) entry.crc);
+            writeInt(header, entry.compressedSize);
+            writeInt(header, entry.size);
+            writeShort(header, entry.name.length);
+            writeShort(header, zip64 ? 12 : 0);
+            writeShort(header, 0);
+            writeShort(header, 0);
+            writeShort(header, 0);
+            writeInt(header, 0);
+            writeInt(header, (int) (zip64 ? ZIP64_MAGIC : entry.offset));
+            header.write(entry.name);
+            if (zip64) {
+                writeShort(header, 0x0001);
+                writeShort(header, 8);
+                writeLong(header, entry.offset);
+            }
+            header.writeTo(out);
+            directorySize += header.size();
+        }
+        offset = directoryOffset + directorySize;
+
+        header.reset();
+        if ((entries.size() >= ZIP64_MAGIC_COUNT)
+                || (directoryOffset >= ZIP64_MAGIC)
+                || (directorySize >= ZIP64_MAGIC)) {
+            writeInt(header, 0x06064b50);
+            writeLong(header, 44);
+            writeShort(header, 45);
+            writeShort(header, 45);
+            writeInt(header, 0);
+            writeInt(header, 0);
+            writeLong(header, entries.size());
+            writeLong(header, entries.size());
+            writeLong(header, directorySize);
+            writeLong(header, directoryOffset);
+            writeInt(header, 0x07064b50);
+            writeInt(header, 0);
+            writeLong(header, offset);
+            writeInt(header, 1);
+        }
+        writeInt(header, 0x06054b50);
+        writeShort(header, 0);
+        writeShort(header, 0);
+        writeShort(header, Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        writeShort(header, Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        writeInt(header, (int) Math.min(directorySize, ZIP64_MAGIC));
+        writeInt(header, (int) Math.min(directoryOffset, ZIP64_MAGIC));
+        writeShort(header, 0);
+        header.writeTo(out);
+    }
+
+    /**
+     * Copies the compressed data of an entry from the spill file.
+     *
+     * @param entry
+     *            the entry.
+     * @param buffer
+     *            the buffer to copy through.
+     * @param out
+     *            the archive stream.
+     * @throws IOException
+     *             when the spill file can not be read or the archive can not
+     *             be written.
+     */
+    private void copySpill(Entry entry, ByteBuffer buffer, OutputStream out)
+            throws IOException {
+
+        long position = entry.spillOffset;
+        long end = entry.spillOffset + entry.compressedSize;
+
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = spill.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("The spill file " + spillFile
+                        + " ends before the entry "
+                        + new String(entry.name, UTF_8));
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * Compresses the content as a raw deflate stream.
+     *
+     * @param content
+     *            the content to compress.
+     * @return the compressed content.
+     */
+    private static byte[] deflate(byte[] content) {
+
+        Deflater deflater;
+        ByteArrayOutputStream out;
+        byte[] buffer;
+
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            out = new ByteArrayOutputStream(content.length / 3 + 64);
+            buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Converts a time into the MS-DOS date and time format used by zip.
+     *
+     * @param time
+     *            the time in milliseconds since the epoch.
+     * @return the date in the high and the time in the low 16 bits.
+     */
+    private static int toDosTime(long time) {
+
+        Calendar calendar;
+        int year;
+
+        calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(time);
+        year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value & 0xffff);
+        writeShort(out, (value >>> 16) & 0xffff);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) value);
+        writeInt(out, (int) (value >>> 32));
+    }
+
+    /**
+     * Getter method for archive.
+     *
+     * @return the archive file.
+     */
+    public Path getArchive() {
+        return archive;
+    }
+
+    /**
+     * A compressed entry waiting in the spill file to be written.
+     */
+    private static final class Entry {
+        byte[] name;
+        int method;
+        int size;
+        int compressedSize;
+        long crc;
+        long spillOffset;
+        long offset;
+    }
+}
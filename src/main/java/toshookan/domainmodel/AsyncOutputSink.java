@@ -0,0 +1,162 @@
+package toshookan.domainmodel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the generated files to a pool of I/O threads so rendering does not
+ * wait for the disk.
+ * <p>
+ * The files are written by the target sink on the I/O threads. The number of
+ * files waiting to be written is bounded, a renderer that runs ahead of the
+ * disk blocks until the backlog has been reduced, so memory does not grow with
+ * the size of the model. Write failures are collected and reported by
+ * {@link #close()}, which waits for all of the files to be written.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class AsyncOutputSink implements OutputSink, Closeable {
+
+    /*
+     * The number of files per I/O thread that may wait to be written.
+     */
+    private static final int PENDING_FILES_PER_THREAD = 64;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final OutputSink target;
+    private final ExecutorService executor;
+    private final Semaphore pending;
+    private IOException failure;
+
+    /**
+     * Constructor for class AsyncOutputSink.
+     *
+     * @param target
+     *            the sink the files are written to, it must be safe to use
+     *            from several threads.
+     * @param threads
+     *            the number of I/O threads.
+     */
+    public AsyncOutputSink(OutputSink target, int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: "
+                    + threads);
+        }
+        this.target = target;
+        this.pending = new Semaphore(threads * PENDING_FILES_PER_THREAD);
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private final String prefix = "toshookan-io-"
+                            + POOL_NUMBER.incrementAndGet() + "-";
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, prefix
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Queues the file to be written by an I/O thread.
+     * <p>
+     * The content must not be modified after it has been handed to the sink.
+     *
+     * @param fileName
+     * @param content
+     * @throws IOException
+     *             when interrupted while waiting for the backlog to shrink.
+     * @see toshookan.domainmodel.OutputSink#write(java.lang.String, byte[])
+     */
+    public void write(final String fileName, final byte[] content)
+            throws IOException {
+
+        try {
+            pending.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing "
+                    + fileName);
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        target.write(fileName, content);
+                    }
+                    catch (IOException e) {
+                        addFailure(new IOException("Unable to write "
+                                + fileName, e));
+                    }
+                    catch (RuntimeException e) {
+                        addFailure(new IOException("Unable to write "
+                                + fileName, e));
+                    }
+                    finally {
+                        pending.release();
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Records a write failure, the later failures are suppressed by the
+     * first.
+     *
+     * @param e
+     *            the failure.
+     */
+    private synchronized void addFailure(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        else {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Waits for the queued files to be written and stops the I/O threads.
+     *
+     * @throws IOException
+     *             when any of the files could not be written or when
+     *             interrupted while waiting.
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting for the writes
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for the writes");
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,1051 @@
+package toshookan.domainmodel;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.runtime.parser.node.ASTAndNode;
+import org.apache.velocity.runtime.parser.node.ASTBlock;
+import org.apache.velocity.runtime.parser.node.ASTComment;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.ASTEQNode;
+import org.apache.velocity.runtime.parser.node.ASTElseIfStatement;
+import org.apache.velocity.runtime.parser.node.ASTElseStatement;
+import org.apache.velocity.runtime.parser.node.ASTExpression;
+import org.apache.velocity.runtime.parser.node.ASTIdentifier;
+import org.apache.velocity.runtime.parser.node.ASTIfStatement;
+import org.apache.velocity.runtime.parser.node.ASTNotNode;
+import org.apache.velocity.runtime.parser.node.ASTOrNode;
+import org.apache.velocity.runtime.parser.node.ASTReference;
+import org.apache.velocity.runtime.parser.node.ASTStringLiteral;
+import org.apache.velocity.runtime.parser.node.ASTText;
+import org.apache.velocity.runtime.parser.node.ASTprocess;
+import org.apache.velocity.runtime.parser.node.Node;
+
+/**
+ * A parsed Velocity template compiled into a tree of renderers.
+ * <p>
+ * Velocity 1.4 interprets the AST of a template on every merge, and looks up
+ * the getter behind every property reference again for every merge because
+ * its introspection cache lives in the per merge context. The compiled form
+ * walks the AST once when the template is loaded:
+ * <ul>
+ * <li>text and comments become constant strings, adjacent ones are joined,</li>
+ * <li>references become chains of accessors, the properties of a
+ * {@link ValueView} are read by calling its getters directly,</li>
+ * <li>#if and #elseif become conditions on references, !, &amp;&amp;, || and
+ * comparisons with string literals,</li>
+ * <li>#foreach over a collection becomes a loop setting the element and
+ * counter just like Velocity does.</li>
+ * </ul>
+ * Everything else, such as #set, arithmetic, method calls, macros and escaped
+ * references, is left to Velocity and interpreted in the same context. A
+ * compiled node also falls back to Velocity whenever a value is not of the
+ * type it was compiled for, e.g. a null reference, a property of a map or a
+ * #foreach over an array, so the output is exactly that of
+ * {@link Template#merge(Context, Writer)}.
+ * <p>
+ * A compiled template is immutable and can be merged from several threads.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+final class CompiledTemplate {
+
+    /*
+     * The reference type Velocity uses for a lone "$" that is rendered as is.
+     */
+    private static final int RUNT_REFERENCE = 4;
+
+    /*
+     * The private fields of ASTReference describing the text rendered in
+     * front of the value, null if they are not accessible.
+     */
+    private static final Field[] REFERENCE_FIELDS = getReferenceFields();
+
+    private final Template template;
+    private final Renderer root;
+
+    /**
+     * Constructor for class CompiledTemplate.
+     *
+     * @param template
+     *            the parsed template.
+     * @param root
+     *            the compiled template.
+     */
+    private CompiledTemplate(Template template, Renderer root) {
+        this.template = template;
+        this.root = root;
+    }
+
+    /**
+     * Compiles a parsed template.
+     *
+     * @param template
+     *            the parsed template.
+     * @param engine
+     *            the engine that parsed the template.
+     * @return the compiled template.
+     * @throws Exception
+     *             when the text of the template can not be extracted.
+     */
+    static CompiledTemplate compile(Template template, VelocityEngine engine)
+            throws Exception {
+
+        Compiler compiler;
+
+        compiler = new Compiler(engine);
+        return new CompiledTemplate(template,
+                compiler.compile((Node) template.getData()));
+    }
+
+    /**
+     * Renders the template.
+     *
+     * @param context
+     *            the context of the template.
+     * @param writer
+     *            the writer receiving the output.
+     * @throws Exception
+     *             when the template can not be rendered.
+     */
+    void merge(Context context, Writer writer) throws Exception {
+
+        InternalContextAdapterImpl adapter;
+
+        adapter = new InternalContextAdapterImpl(context);
+        if (adapter.getEventCartridge() != null) {
+            // the event handlers may replace any value that is rendered
+            template.merge(context, writer);
+            return;
+        }
+        adapter.pushCurrentTemplateName(template.getName());
+        adapter.setCurrentResource(template);
+        try {
+            root.render(adapter, writer);
+        }
+        finally {
+            adapter.popCurrentTemplateName();
+            adapter.setCurrentResource(null);
+        }
+    }
+
+    /**
+     * Getter method for template.
+     *
+     * @return the parsed template.
+     */
+    Template getTemplate() {
+        return template;
+    }
+
+    /**
+     * Looks up the fields of ASTReference needed to render a reference the
+     * way Velocity does.
+     *
+     * @return the fields escaped, escPrefix, morePrefix and referenceType,
+     *         null if they are not accessible.
+     */
+    private static Field[] getReferenceFields() {
+
+        String[] names = { "escaped", "escPrefix", "morePrefix",
+                "referenceType" };
+        Field[] fields = new Field[names.length];
+
+        try {
+            for (int i = 0; i < names.length; ++i) {
+                fields[i] = ASTReference.class.getDeclaredField(names[i]);
+                fields[i].setAccessible(true);
+            }
+        }
+        catch (Exception e) {
+            // references are interpreted by Velocity
+            return null;
+        }
+        return fields;
+    }
+
+    /**
+     * Compiles the nodes of one template.
+     */
+    private static final class Compiler {
+
+        private final String counterName;
+        private final int counterInitialValue;
+
+        /**
+         * Constructor for class Compiler.
+         *
+         * @param engine
+         *            the engine that parsed the template.
+         */
+        Compiler(VelocityEngine engine) {
+
+            Object name;
+            Object initialValue;
+
+            name = engine.getProperty(VelocityEngine.COUNTER_NAME);
+            initialValue = engine
+                    .getProperty(VelocityEngine.COUNTER_INITIAL_VALUE);
+            counterName = (name != null) ? name.toString() : null;
+            counterInitialValue = (initialValue != null) ? Integer
+                    .parseInt(initialValue.toString().trim()) : 1;
+        }
+
+        /**
+         * Compiles a node that is rendered.
+         *
+         * @param node
+         *            the node.
+         * @return the renderer of the node.
+         * @throws Exception
+         *             when the text of a node can not be extracted.
+         */
+        Renderer compile(Node node) throws Exception {
+
+            if ((node instanceof ASTprocess) || (node instanceof ASTBlock)
+                    || (node instanceof ASTElseStatement)) {
+                return compileChildren(node, 0);
+            }
+            if ((node instanceof ASTText) || (node instanceof ASTComment)) {
+                return new Text(getText(node));
+            }
+            if (node instanceof ASTReference) {
+                return compileReference((ASTReference) node);
+            }
+            if (node instanceof ASTIfStatement) {
+                return compileIf(node);
+            }
+            if ((node instanceof ASTDirective)
+                    && "foreach".equals(((ASTDirective) node)
+                            .getDirectiveName())) {
+                return compileForeach(node);
+            }
+            return new InterpretedRenderer(node);
+        }
+
+        /**
+         * Compiles the children of a node that are rendered one after the
+         * other.
+         *
+         * @param node
+         *            the node.
+         * @param first
+         *            the index of the first child to render.
+         * @return the renderer of the children.
+         * @throws Exception
+         *             when the text of a node can not be extracted.
+         */
+        private Renderer compileChildren(Node node, int first)
+                throws Exception {
+
+            List<Renderer> renderers;
+            StringBuilder text;
+            Renderer renderer;
+
+            renderers = new ArrayList<Renderer>(node.jjtGetNumChildren());
+            text = new StringBuilder();
+            for (int i = first; i < node.jjtGetNumChildren(); ++i) {
+                renderer = compile(node.jjtGetChild(i));
+                if (renderer instanceof Text) {
+                    text.append(((Text) renderer).text);
+                }
+                else {
+                    if (text.length() > 0) {
+                        renderers.add(new Text(text.toString()));
+                        text.setLength(0);
+                    }
+                    renderers.add(renderer);
+                }
+            }
+            if (text.length() > 0) {
+                renderers.add(new Text(text.toString()));
+            }
+            if (renderers.size() == 1) {
+                return renderers.get(0);
+            }
+            return new Sequence(renderers.toArray(new Renderer[renderers
+                    .size()]));
+        }
+
+        /**
+         * Extracts the constant text of a text or comment node.
+         *
+         * @param node
+         *            the node.
+         * @return the text the node renders.
+         * @throws Exception
+         *             when the node can not be rendered.
+         */
+        private String getText(Node node) throws Exception {
+
+            StringWriter writer = new StringWriter();
+
+            // text and comments render their text without the context
+            node.render(null, writer);
+            return writer.toString();
+        }
+
+        /**
+         * Compiles a reference that is rendered.
+         *
+         * @param node
+         *            the reference.
+         * @return the renderer of the reference.
+         * @throws Exception
+         *             when the fields of the reference can not be read.
+         */
+        private Renderer compileReference(ASTReference node) throws Exception {
+
+            Accessor accessor;
+
+            accessor = compileAccessor(node);
+            if ((accessor == null) || (REFERENCE_FIELDS == null)
+                    || ((Boolean) REFERENCE_FIELDS[0].get(node)).booleanValue()) {
+                return new InterpretedRenderer(node);
+            }
+            return new Reference(node, accessor,
+                    (String) REFERENCE_FIELDS[1].get(node)
+                            + (String) REFERENCE_FIELDS[2].get(node));
+        }
+
+        /**
+         * Compiles the value of a reference.
+         *
+         * @param node
+         *            the reference.
+         * @return the accessor of the value, null if the reference is rendered
+         *         as is.
+         * @throws Exception
+         *             when the fields of the reference can not be read.
+         */
+        private Accessor compileAccessor(ASTReference node) throws Exception {
+
+            Accessor accessor;
+            Node child;
+            ValueProperty property;
+
+            if ((REFERENCE_FIELDS == null)
+                    || (((Integer) REFERENCE_FIELDS[3].get(node)).intValue() == RUNT_REFERENCE)) {
+                return null;
+            }
+            accessor = new Variable(node.getRootString());
+            for (int i = 0; i < node.jjtGetNumChildren(); ++i) {
+                child = node.jjtGetChild(i);
+                property = (child instanceof ASTIdentifier) ? ValueProperty
+                        .forName(child.getFirstToken().image) : null;
+                accessor = (property != null) ? new ValueViewProperty(
+                        accessor, property, child) : new InterpretedStep(
+                        accessor, child);
+            }
+            return accessor;
+        }
+
+        /**
+         * Compiles an expression that is evaluated to a value.
+         *
+         * @param node
+         *            the expression.
+         * @return the accessor of the value.
+         * @throws Exception
+         *             when the fields of a reference can not be read.
+         */
+        private Accessor compileValue(Node node) throws Exception {
+
+            Accessor accessor = null;
+
+            if (node instanceof ASTReference) {
+                accessor = compileAccessor((ASTReference) node);
+            }
+            return (accessor != null) ? accessor : new InterpretedValue(node);
+        }
+
+        /**
+         * Compiles an #if statement with its #elseif and #else branches.
+         *
+         * @param node
+         *            the statement.
+         * @return the renderer of the statement.
+         * @throws Exception
+         *             when the text of a node can not be extracted.
+         */
+        private Renderer compileIf(Node node) throws Exception {
+
+            int branches = node.jjtGetNumChildren() - 1;
+            Condition[] conditions = new Condition[branches];
+            Renderer[] blocks = new Renderer[branches];
+            Node branch;
+
+            conditions[0] = compileCondition(node.jjtGetChild(0));
+            blocks[0] = compile(node.jjtGetChild(1));
+            for (int i = 1; i < branches; ++i) {
+                branch = node.jjtGetChild(i + 1);
+                if (branch instanceof ASTElseIfStatement) {
+                    conditions[i] = compileCondition(branch.jjtGetChild(0));
+                    blocks[i] = compile(branch.jjtGetChild(1));
+                }
+                else {
+                    conditions[i] = null;
+                    blocks[i] = compile(branch);
+                }
+            }
+            return new If(conditions, blocks);
+        }
+
+        /**
+         * Compiles the condition of an #if or #elseif.
+         *
+         * @param node
+         *            the condition.
+         * @return the compiled condition.
+         * @throws Exception
+         *             when the fields of a reference can not be read.
+         */
+        private Condition compileCondition(Node node) throws Exception {
+
+            Accessor accessor;
+            String literal;
+
+            if (node instanceof ASTExpression) {
+                return compileCondition(node.jjtGetChild(0));
+            }
+            if (node instanceof ASTNotNode) {
+                return new Not(compileCondition(node.jjtGetChild(0)));
+            }
+            if (node instanceof ASTAndNode) {
+                return new And(compileCondition(node.jjtGetChild(0)),
+                        compileCondition(node.jjtGetChild(1)));
+            }
+            if (node instanceof ASTOrNode) {
+                return new Or(compileCondition(node.jjtGetChild(0)),
+                        compileCondition(node.jjtGetChild(1)));
+            }
+            if (node instanceof ASTReference) {
+                accessor = compileAccessor((ASTReference) node);
+                if (accessor != null) {
+                    return new Truth(accessor);
+                }
+            }
+            if ((node instanceof ASTEQNode)
+                    && (node.jjtGetChild(0) instanceof ASTReference)
+                    && (node.jjtGetChild(1) instanceof ASTStringLiteral)) {
+                literal = getLiteral(node.jjtGetChild(1));
+                accessor = compileAccessor((ASTReference) node.jjtGetChild(0));
+                if ((literal != null) && (accessor != null)) {
+                    return new EqualsString(node, accessor, literal);
+                }
+            }
+            return new InterpretedCondition(node);
+        }
+
+        /**
+         * Returns the value of a string literal that is not interpolated.
+         *
+         * @param node
+         *            the string literal.
+         * @return the value, null if the literal may be interpolated.
+         */
+        private String getLiteral(Node node) {
+
+            String image = node.getFirstToken().image;
+
+            if ((image.length() < 2) || (image.charAt(0) != '"')
+                    || (image.charAt(image.length() - 1) != '"')
+                    || (image.indexOf('$') >= 0) || (image.indexOf('#') >= 0)
+                    || (image.indexOf('\\') >= 0)) {
+                return null;
+            }
+            return image.substring(1, image.length() - 1);
+        }
+
+        /**
+         * Compiles a #foreach directive.
+         *
+         * @param node
+         *            the directive.
+         * @return the renderer of the directive.
+         * @throws Exception
+         *             when the text of a node can not be extracted.
+         */
+        private Renderer compileForeach(Node node) throws Exception {
+
+            String elementKey;
+
+            elementKey = node.jjtGetChild(0).getFirstToken().image
+                    .substring(1);
+            if ((counterName == null) || (node.jjtGetNumChildren() != 4)
+                    || !(node.jjtGetChild(0) instanceof ASTReference)
+                    || !elementKey.equals(((ASTReference) node.jjtGetChild(0))
+                            .getRootString())) {
+                return new InterpretedRenderer(node);
+            }
+            return new Foreach(node, elementKey, counterName,
+                    counterInitialValue, compileValue(node.jjtGetChild(2)),
+                    compile(node.jjtGetChild(3)));
+        }
+    }
+
+    /**
+     * Renders a part of a template.
+     */
+    private abstract static class Renderer {
+
+        /**
+         * Renders the part of the template.
+         *
+         * @param context
+         *            the context of the merge.
+         * @param writer
+         *            the writer receiving the output.
+         * @throws Exception
+         *             when the template can not be rendered.
+         */
+        abstract void render(InternalContextAdapter context, Writer writer)
+                throws Exception;
+    }
+
+    /**
+     * Computes the value of a reference or an expression.
+     */
+    private abstract static class Accessor {
+
+        /**
+         * Computes the value.
+         *
+         * @param context
+         *            the context of the merge.
+         * @return the value, null if it is not set.
+         * @throws Exception
+         *             when a method of the value fails.
+         */
+        abstract Object get(InternalContextAdapter context) throws Exception;
+    }
+
+    /**
+     * Evaluates the condition of an #if or #elseif.
+     */
+    private abstract static class Condition {
+
+        /**
+         * Evaluates the condition.
+         *
+         * @param context
+         *            the context of the merge.
+         * @return true if the branch is rendered.
+         * @throws Exception
+         *             when a method of a value fails.
+         */
+        abstract boolean evaluate(InternalContextAdapter context)
+                throws Exception;
+    }
+
+    /**
+     * Constant text.
+     */
+    private static final class Text extends Renderer {
+
+        private final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        void render(InternalContextAdapter context, Writer writer)
+                throws Exception {
+            writer.write(text);
+        }
+    }
+
+    /**
+     * Parts of a template rendered one after the other.
+     */
+    private static final class Sequence extends Renderer {
+
+        private final Renderer[] renderers;
+
+        Sequence(Renderer[] renderers) {
+            this.renderers = renderers;
+        }
+
+        void render(InternalContextAdapter context, Writer writer)
+                throws Exception {
+            for (int i = 0; i < renderers.length; ++i) {
+                renderers[i].render(context, writer);
+            }
+        }
+    }
+
+    /**
+     * A node rendered by Velocity.
+     */
+    private static final class InterpretedRenderer extends Renderer {
+
+        private final Node node;
+
+        InterpretedRenderer(Node node) {
+            this.node = node;
+        }
+
+        void render(InternalContextAdapter context, Writer writer)
+                throws Exception {
+            node.render(context, writer);
+        }
+    }
+
+    /**
+     * A reference that renders its value, Velocity renders the reference if
+     * the value is null.
+     */
+    private static final class Reference extends Renderer {
+
+        private final Node node;
+        private final Accessor accessor;
+        private final String prefix;
+
+        Reference(Node node, Accessor accessor, String prefix) {
+            this.node = node;
+            this.accessor = accessor;
+            this.prefix = prefix;
+        }
+
+        void render(InternalContextAdapter context, Writer writer)
+                throws Exception {
+
+            Object value = accessor.get(context);
+
+            if (value == null) {
+                node.render(context, writer);
+                return;
+            }
+            if (prefix.length() > 0) {
+                writer.write(prefix);
+            }
+            writer.write(value.toString());
+        }
+    }
+
+    /**
+     * An #if statement with its #elseif and #else branches.
+     */
+    private static final class If extends Renderer {
+
+        private final Condition[] conditions;
+        private final Renderer[] blocks;
+
+        If(Condition[] conditions, Renderer[] blocks) {
+            this.conditions = conditions;
+            this.blocks = blocks;
+        }
+
+        void render(InternalContextAdapter context, Writer writer)
+                throws Exception {
+            for (int i = 0; i < conditions.length; ++i) {
+                if ((conditions[i] == null) || conditions[i].evaluate(context)) {
+                    blocks[i].render(context, writer);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A #foreach directive, Velocity renders the directive if the values are
+     * not a collection.
+     */
+    private static final class Foreach extends Renderer {
+
+        private final Node node;
+        private final String elementKey;
+        private final String counterName;
+        private final int counterInitialValue;
+        private final Accessor values;
+        private final Renderer body;
+
+        Foreach(Node node, String elementKey, String counterName,
+                int counterInitialValue, Accessor values, Renderer body) {
+            this.node = node;
+            this.elementKey = elementKey;
+            this.counterName = counterName;
+            this.counterInitialValue = counterInitialValue;
+            this.values = values;
+            this.body = body;
+        }
+
+        void render(InternalContextAdapter context, Writer writer)
+                throws Exception {
+
+            Object list;
+            Object element;
+            Object counter;
+            int count;
+
+            list = values.get(context);
+            if (list == null) {
+                return;
+            }
+            if (!(list instanceof Collection<?>)) {
+                node.render(context, writer);
+                return;
+            }
+            count = counterInitialValue;
+            element = context.get(elementKey);
+            counter = context.get(counterName);
+            for (Object value : (Collection<?>) list) {
+                context.put(counterName, Integer.valueOf(count));
+                context.put(elementKey, value);
+                body.render(context, writer);
+                ++count;
+            }
+            if (counter != null) {
+                context.put(counterName, counter);
+            }
+            else {
+                context.remove(counterName);
+            }
+            if (element != null) {
+                context.put(elementKey, element);
+            }
+            else {
+                context.remove(elementKey);
+            }
+        }
+    }
+
+    /**
+     * The variable a reference starts with.
+     */
+    private static final class Variable extends Accessor {
+
+        private final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        Object get(InternalContextAdapter context) {
+            return context.get(name);
+        }
+    }
+
+    /**
+     * A property of a {@link ValueView} read by its getter, Velocity looks the
+     * property up if the value is not a ValueView.
+     */
+    private static final class ValueViewProperty extends Accessor {
+
+        private final Accessor target;
+        private final ValueProperty property;
+        private final Node node;
+
+        ValueViewProperty(Accessor target, ValueProperty property, Node node) {
+            this.target = target;
+            this.property = property;
+            this.node = node;
+        }
+
+        Object get(InternalContextAdapter context) throws Exception {
+
+            Object value = target.get(context);
+
+            if (value instanceof ValueView) {
+                return property.get((ValueView) value);
+            }
+            return (value == null) ? null : node.execute(value, context);
+        }
+    }
+
+    /**
+     * A property or method of a value looked up by Velocity.
+     */
+    private static final class InterpretedStep extends Accessor {
+
+        private final Accessor target;
+        private final Node node;
+
+        InterpretedStep(Accessor target, Node node) {
+            this.target = target;
+            this.node = node;
+        }
+
+        Object get(InternalContextAdapter context) throws Exception {
+
+            Object value = target.get(context);
+
+            return (value == null) ? null : node.execute(value, context);
+        }
+    }
+
+    /**
+     * An expression evaluated by Velocity.
+     */
+    private static final class InterpretedValue extends Accessor {
+
+        private final Node node;
+
+        InterpretedValue(Node node) {
+            this.node = node;
+        }
+
+        Object get(InternalContextAdapter context) throws Exception {
+            return node.value(context);
+        }
+    }
+
+    /**
+     * A reference used as a condition, true unless it is null or false.
+     */
+    private static final class Truth extends Condition {
+
+        private final Accessor accessor;
+
+        Truth(Accessor accessor) {
+            this.accessor = accessor;
+        }
+
+        boolean evaluate(InternalContextAdapter context) throws Exception {
+
+            Object value = accessor.get(context);
+
+            if (value instanceof Boolean) {
+                return ((Boolean) value).booleanValue();
+            }
+            return value != null;
+        }
+    }
+
+    /**
+     * The negation of a condition.
+     */
+    private static final class Not extends Condition {
+
+        private final Condition condition;
+
+        Not(Condition condition) {
+            this.condition = condition;
+        }
+
+        boolean evaluate(InternalContextAdapter context) throws Exception {
+            return !condition.evaluate(context);
+        }
+    }
+
+    /**
+     * Two conditions that must both be true.
+     */
+    private static final class And extends Condition {
+
+        private final Condition left;
+        private final Condition right;
+
+        And(Condition left, Condition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        boolean evaluate(InternalContextAdapter context) throws Exception {
+            return left.evaluate(context) && right.evaluate(context);
+        }
+    }
+
+    /**
+     * Two conditions of which one must be true.
+     */
+    private static final class Or extends Condition {
+
+        private final Condition left;
+        private final Condition right;
+
+        Or(Condition left, Condition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        boolean evaluate(InternalContextAdapter context) throws Exception {
+            return left.evaluate(context) || right.evaluate(context);
+        }
+    }
+
+    /**
+     * A reference compared with a string literal, Velocity compares them if
+     * the reference is not a string.
+     */
+    private static final class EqualsString extends Condition {
+
+        private final Node node;
+        private final Accessor accessor;
+        private final String literal;
+
+        EqualsString(Node node, Accessor accessor, String literal) {
+            this.node = node;
+            this.accessor = accessor;
+            this.literal = literal;
+        }
+
+        boolean evaluate(InternalContextAdapter context) throws Exception {
+
+            Object value = accessor.get(context);
+
+            if (value instanceof String) {
+                return literal.equals(value);
+            }
+            return node.evaluate(context);
+        }
+    }
+
+    /**
+     * A condition evaluated by Velocity.
+     */
+    private static final class InterpretedCondition extends Condition {
+
+        private final Node node;
+
+        InterpretedCondition(Node node) {
+            this.node = node;
+        }
+
+        boolean evaluate(InternalContextAdapter context) throws Exception {
+            return node.evaluate(context);
+        }
+    }
+
+    /**
+     * The properties of a {@link ValueView} as the templates name them.
+     */
+    private enum ValueProperty {
+
+        BUFFER_TYPE("bufferType") {
+            Object get(ValueView view) {
+                return view.getBufferType();
+            }
+        },
+        CLASS_NAME("className") {
+            Object get(ValueView view) {
+                return view.getClassName();
+            }
+        },
+        CODEC("codec") {
+            Object get(ValueView view) {
+                return view.getCodec();
+            }
+        },
+        COLUMN_TYPE("columnType") {
+            Object get(ValueView view) {
+                return view.getColumnType();
+            }
+        },
+        CONSTANT_NAME("constantName") {
+            Object get(ValueView view) {
+                return view.getConstantName();
+            }
+        },
+        COPY_CLASS("copyClass") {
+            Object get(ValueView view) {
+                return view.getCopyClass();
+            }
+        },
+        DESCRIPTION("description") {
+            Object get(ValueView view) {
+                return view.getDescription();
+            }
+        },
+        GETTER("getter") {
+            Object get(ValueView view) {
+                return view.getGetter();
+            }
+        },
+        INSTANCE_NAME("instanceName") {
+            Object get(ValueView view) {
+                return view.getInstanceName();
+            }
+        },
+        KIND("kind") {
+            Object get(ValueView view) {
+                return view.getKind();
+            }
+        },
+        MUTABLE("mutable") {
+            Object get(ValueView view) {
+                return Boolean.valueOf(view.getMutable());
+            }
+        },
+        NAME("name") {
+            Object get(ValueView view) {
+                return view.getName();
+            }
+        },
+        NULLABLE("nullable") {
+            Object get(ValueView view) {
+                return Boolean.valueOf(view.getNullable());
+            }
+        },
+        OFFSET("offset") {
+            Object get(ValueView view) {
+                return view.getOffset();
+            }
+        },
+        SETTER("setter") {
+            Object get(ValueView view) {
+                return view.getSetter();
+            }
+        },
+        TEST_VALUE("testValue") {
+            Object get(ValueView view) {
+                return view.getTestValue();
+            }
+        },
+        UNMODIFIABLE_VIEW("unmodifiableView") {
+            Object get(ValueView view) {
+                return view.getUnmodifiableView();
+            }
+        };
+
+        private static final Map<String, ValueProperty> BY_NAME = new HashMap<String, ValueProperty>();
+        static {
+            for (ValueProperty property : values()) {
+                BY_NAME.put(property.name, property);
+            }
+        }
+
+        private final String name;
+
+        /**
+         * Constructor for enum ValueProperty.
+         *
+         * @param name
+         *            the name of the property in the templates.
+         */
+        private ValueProperty(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the property with a name.
+         *
+         * @param name
+         *            the name of the property in the templates.
+         * @return the property, null if ValueView has no such property.
+         */
+        static ValueProperty forName(String name) {
+            return BY_NAME.get(name);
+        }
+
+        /**
+         * Reads the property.
+         *
+         * @param view
+         *            the view.
+         * @return the value of the property.
+         */
+        abstract Object get(ValueView view);
+    }
+}
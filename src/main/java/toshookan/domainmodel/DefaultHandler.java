@@ -4,7 +4,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
@@ -27,6 +32,12 @@ import org.xml.sax.SAXException;
  * stream the string version of the parse() method should not be used as it is
  * not as memory efficient.
  * <p>
+ * Looking up the parser factory and creating a parser is expensive compared to
+ * parsing a small document. The factory is looked up once and parsers are
+ * reset and pooled after each successful parse so repeated and concurrent
+ * parses reuse them. A handler instance itself is not thread safe, concurrent
+ * parses need a handler each.
+ * <p>
  * Whatever the result of the parse process is it should be accessed after the
  * parsing is complete via a getter method. Not all handlers will produce a
  * returnable result. For example a parser may perform CRUD operations on a
@@ -37,7 +48,23 @@ import org.xml.sax.SAXException;
  */
 public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler {
 
-    private StringBuffer characters;
+    /**
+     * The maximum number of idle parsers kept in the pool.
+     */
+    private static final int MAX_POOLED_PARSERS = 2 * Runtime.getRuntime()
+            .availableProcessors();
+
+    private static final SAXParserFactory FACTORY = SAXParserFactory
+            .newInstance();
+
+    private static final Queue<SAXParser> PARSERS = new ConcurrentLinkedQueue<SAXParser>();
+
+    private static final AtomicInteger POOLED_PARSERS = new AtomicInteger();
+
+    private char[] characters = new char[256];
+    private int charactersLength;
+    private boolean capturing = true;
+    private GenerationMetrics metrics;
 
     /**
      * Parses the passed XML String.
@@ -50,8 +77,7 @@ public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler
      *             When the parsing fails.
      */
     public void parse(String string) throws Exception {
-        SAXParserFactory.newInstance().newSAXParser().parse(
-                new InputSource(new StringReader(string.trim())), this);
+        parse(new InputSource(new StringReader(string.trim())));
     }
 
     /**
@@ -65,9 +91,12 @@ public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler
      *             When the parsing fails.
      */
     public void parse(InputStream stream) throws Exception {
-        SAXParserFactory.newInstance().newSAXParser().parse(
-                new InputSource(stream), this);
-        stream.close();
+        try {
+            parse(new InputSource(stream));
+        }
+        finally {
+            stream.close();
+        }
     }
 
     /**
@@ -84,6 +113,67 @@ public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler
         this.parse(new FileInputStream(file));
     }
 
+    /**
+     * Parses the document with a pooled parser.
+     * <p>
+     * The parser is only returned to the pool when the parse succeeds, a
+     * parser that failed is discarded.
+     * 
+     * @param source
+     *            The XML to parse.
+     * @throws Exception
+     *             When the parsing fails.
+     */
+    private void parse(InputSource source) throws Exception {
+
+        SAXParser parser = borrowParser();
+        long start = (metrics != null) ? metrics.begin() : 0;
+
+        parser.parse(source, this);
+        returnParser(parser);
+        if (metrics != null) {
+            metrics.end(GenerationMetrics.Phase.PARSE, start, null);
+        }
+    }
+
+    /**
+     * Takes an idle parser from the pool, creating one if the pool is empty.
+     * 
+     * @return a parser ready for use.
+     * @throws Exception
+     *             When a parser can not be created.
+     */
+    private static SAXParser borrowParser() throws Exception {
+
+        SAXParser parser = PARSERS.poll();
+
+        if (parser != null) {
+            POOLED_PARSERS.decrementAndGet();
+            return parser;
+        }
+        // SAXParserFactory is not guaranteed to be thread safe
+        synchronized (FACTORY) {
+            return FACTORY.newSAXParser();
+        }
+    }
+
+    /**
+     * Resets the parser and returns it to the pool unless the pool is full.
+     * 
+     * @param parser
+     *            the parser to return.
+     */
+    private static void returnParser(SAXParser parser) {
+
+        parser.reset();
+        if (POOLED_PARSERS.incrementAndGet() <= MAX_POOLED_PARSERS) {
+            PARSERS.offer(parser);
+        }
+        else {
+            POOLED_PARSERS.decrementAndGet();
+        }
+    }
+
     /**
      * startElement
      * 
@@ -114,11 +204,14 @@ public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler
     public void endElement(String namespaceURI, String sName, String qName)
             throws SAXException {
 
-        getCharacters(true);
+        return;
     }
 
     /**
      * characters
+     * <p>
+     * The character data is copied into a reusable buffer, unless capturing
+     * has been turned off for the current set of tags.
      * 
      * @param ch
      * @param start
@@ -126,7 +219,16 @@ public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler
      * @see org.xml.sax.ContentHandler#characters(char[], int, int)
      */
     public void characters(char[] ch, int start, int length) {
-        characters.append(ch, start, length);
+
+        if (!capturing) {
+            return;
+        }
+        if (charactersLength + length > characters.length) {
+            characters = Arrays.copyOf(characters, Math.max(
+                    characters.length * 2, charactersLength + length));
+        }
+        System.arraycopy(ch, start, characters, charactersLength, length);
+        charactersLength += length;
     }
 
     /**
@@ -138,7 +240,23 @@ public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler
      * typically called first thing in the startElement handler method.
      */
     protected void resetCharacters() {
-        characters = new StringBuffer();
+        resetCharacters(true);
+    }
+
+    /**
+     * Resets the character variable and optionally turns off capturing.
+     * <p>
+     * Handlers that only use the character data of some elements should turn
+     * capturing off for the others, the character data of those elements is
+     * then not copied at all.
+     * 
+     * @param capture
+     *            true if the character data of the current set of tags should
+     *            be captured.
+     */
+    protected void resetCharacters(boolean capture) {
+        charactersLength = 0;
+        capturing = capture;
     }
 
     /**
@@ -147,50 +265,86 @@ public abstract class DefaultHandler extends org.xml.sax.helpers.DefaultHandler
      * The character variable represents the character data between the current
      * set of tags. Optionally the value can be squeezed and trimed (all extra
      * whitespace characters are removed an no leading or trailing white space).
+     * Squeezing is done in place, the character variable holds the squeezed
+     * data afterwards.
      * 
      * @param squeeze
      *            true if the character data should be squeezed and trimed.
      * @return the character data that is between the current set of tags.
      */
     protected String getCharacters(boolean squeeze) {
-        return (squeeze) ? squeeze(characters.toString()).trim() : characters
-                .toString();
+
+        int start = 0;
+        int end;
+
+        if (squeeze) {
+            charactersLength = squeeze(characters, charactersLength);
+        }
+        end = charactersLength;
+        if (squeeze) {
+            // same definition of white space as String.trim()
+            while ((start < end) && (characters[start] <= ' ')) {
+                ++start;
+            }
+            while ((start < end) && (characters[end - 1] <= ' ')) {
+                --end;
+            }
+        }
+        return new String(characters, start, end - start);
     }
 
     /**
-     * squeeze Removes all extra whitespace characters from the passed String.
-     * All occurrences of consecutive white space characters as defined by
-     * Character#isWhitespace(char) are reduced down to one whitespace character
-     * (a space ' '). A new modified String is returned. The string is not
-     * trimed.
+     * squeeze Removes all extra whitespace characters from the passed
+     * characters. All occurrences of consecutive white space characters as
+     * defined by Character#isWhitespace(char) are reduced down to one
+     * whitespace character (a space ' '). The characters are modified in place
+     * and are not trimed.
      * 
-     * @param s
-     *            the String to modify
-     * @return a new String without repeated whitespace characters.
+     * @param chars
+     *            the characters to modify
+     * @param length
+     *            the number of characters in use
+     * @return the number of characters in use after squeezing.
      */
-    private static String squeeze(String s) {
+    private static int squeeze(char[] chars, int length) {
 
-        char[] oldString = s.toCharArray();
-        int oldLength = oldString.length;
-        char[] newString = new char[oldLength];
         int newLength = 0;
         char currentChar;
         boolean consecutive = false;
 
-        for (int i = 0; i < oldLength; ++i) {
-            currentChar = oldString[i];
+        for (int i = 0; i < length; ++i) {
+            currentChar = chars[i];
             if (Character.isWhitespace(currentChar)) {
                 if (!consecutive) {
                     consecutive = true;
-                    newString[newLength++] = ' ';
+                    chars[newLength++] = ' ';
                 }
             }
             else {
                 consecutive = false;
-                newString[newLength++] = currentChar;
+                chars[newLength++] = currentChar;
             }
         }
 
-        return new String(newString, 0, newLength);
+        return newLength;
+    }
+
+    /**
+     * Getter method for metrics.
+     * 
+     * @return the collector of the parse times, or null.
+     */
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Setter method for metrics.
+     * 
+     * @param metrics
+     *            the collector of the parse times, null to not measure.
+     */
+    public void setMetrics(GenerationMetrics metrics) {
+        this.metrics = metrics;
     }
 }
@@ -1,11 +1,20 @@
 package toshookan.domainmodel;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Short Description.
+ * The entities of a model.
  * <p>
- * Full Description.
+ * The entities are indexed by their fully qualified name, their simple name,
+ * their package and their super-class as they are added, so references
+ * between entities are resolved without scanning the model. An entity is
+ * indexed by the values of its properties when it is added, so they must not
+ * change afterwards.
  * 
  * Created: Dec 2, 2009
  * 
@@ -14,27 +23,158 @@ import java.util.Collection;
  */
 public class DomainModel {
     
-    private Collection entities;
+    private final List<Entity> entities = new ArrayList<Entity>();
+    private final Map<String, Entity> entitiesByQualifiedName = new HashMap<String, Entity>();
+    private final Map<String, List<Entity>> entitiesByName = new HashMap<String, List<Entity>>();
+    private final Map<String, List<Entity>> entitiesByPackage = new HashMap<String, List<Entity>>();
+    private final Map<String, List<Entity>> entitiesBySuperClass = new HashMap<String, List<Entity>>();
+    
+    /**
+     * Adds an entity to the model and its indexes.
+     * 
+     * @param entity The entity to add.
+     */
+    public void addEntity(Entity entity) {
+        entities.add(entity);
+        if (!entitiesByQualifiedName.containsKey(entity.getQualifiedName())) {
+            entitiesByQualifiedName.put(entity.getQualifiedName(), entity);
+        }
+        index(entitiesByName, entity.getName(), entity);
+        index(entitiesByPackage, entity.getPackageName(), entity);
+        if (StringUtil.isSet(entity.getSuperClass())) {
+            index(entitiesBySuperClass, erasure(entity.getSuperClass()), entity);
+        }
+    }
+    
+    /**
+     * Returns the entity with the fully qualified name.
+     * 
+     * @param qualifiedName The package and name of the entity, e.g.
+     *            com.example.Customer.
+     * @return the first entity added with the name, or null.
+     */
+    public Entity getEntity(String qualifiedName) {
+        return entitiesByQualifiedName.get(qualifiedName);
+    }
+    
+    /**
+     * Returns the entities with the simple name, in all packages.
+     * 
+     * @param name The name of the entities without their package.
+     * @return the entities in the order they were added, never null.
+     */
+    public List<Entity> getEntitiesByName(String name) {
+        return lookup(entitiesByName, name);
+    }
+    
+    /**
+     * Returns the entities of a package.
+     * 
+     * @param packageName The package of the entities.
+     * @return the entities in the order they were added, never null.
+     */
+    public List<Entity> getEntitiesByPackage(String packageName) {
+        return lookup(entitiesByPackage, packageName);
+    }
+    
+    /**
+     * Returns the entities that extend a class.
+     * <p>
+     * The super-class is matched as written in the model without its type
+     * arguments, so the subclasses of an entity are found with its fully
+     * qualified name if the model refers to the super-class by that name.
+     * 
+     * @param superClass The super-class, type arguments are ignored.
+     * @return the entities in the order they were added, never null.
+     */
+    public List<Entity> getSubclasses(String superClass) {
+        return lookup(entitiesBySuperClass, erasure(superClass));
+    }
     
     /**
      * Getter method for entities.
      * <p>
-     * Full Description.
+     * The entities can not be changed through the returned list, use
+     * {@link #addEntity(Entity)} so they are indexed.
      * 
-     * @return the value of entities.
+     * @return the entities in the order they were added.
      */
-    public Collection getEntities() {
-        return entities;
+    public List<Entity> getEntities() {
+        return Collections.unmodifiableList(entities);
     }
     
     /**
      * Setter method for entities.
      * <p>
-     * Full Description.
+     * Replaces the entities of the model and rebuilds the indexes. The
+     * entities are copied first, so the collection may be a view of the
+     * current entities.
      * 
      * @param entities The entities to set.
      */
-    public void setEntities(Collection entities) {
-        this.entities = entities;
+    public void setEntities(Collection<Entity> entities) {
+        List<Entity> copy = new ArrayList<Entity>(entities);
+        this.entities.clear();
+        entitiesByQualifiedName.clear();
+        entitiesByName.clear();
+        entitiesByPackage.clear();
+        entitiesBySuperClass.clear();
+        for (Entity entity : copy) {
+            addEntity(entity);
+        }
+    }
+    
+    /**
+     * Adds an entity to the list of an index.
+     * 
+     * @param index The index.
+     * @param key The key of the entity.
+     * @param entity The entity.
+     */
+    private static void index(Map<String, List<Entity>> index, String key,
+            Entity entity) {
+        
+        List<Entity> list = index.get(key);
+        
+        if (list == null) {
+            list = new ArrayList<Entity>(1);
+            index.put(key, list);
+        }
+        list.add(entity);
+    }
+    
+    /**
+     * Looks up the list of an index.
+     * 
+     * @param index The index.
+     * @param key The key of the entities.
+     * @return the entities, an empty list if there are none.
+     */
+    private static List<Entity> lookup(Map<String, List<Entity>> index,
+            String key) {
+        
+        List<Entity> list = index.get(key);
+        
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+    
+    /**
+     * Removes the type arguments from a class name.
+     * 
+     * @param className The class name, may be null.
+     * @return the class name without type arguments and surrounding spaces.
+     */
+    private static String erasure(String className) {
+        
+        int angle;
+        
+        if (className == null) {
+            return null;
+        }
+        angle = className.indexOf('<');
+        return ((angle < 0) ? className : className.substring(0, angle)).trim();
     }
 }
@@ -1,6 +1,5 @@
 package toshookan.domainmodel;
 
-import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import org.xml.sax.Attributes;
@@ -11,6 +10,10 @@ import org.xml.sax.SAXException;
  * <p>
  * This handler converts the XML file into a populated DomainModel instance.
  * <p>
+ * When an EntityListener is set each entity is handed to the listener as soon
+ * as it has been parsed and is not added to the DomainModel, so the memory
+ * needed does not grow with the size of the model.
+ * <p>
  * Created: Jan 20, 2007
  * 
  * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
@@ -39,6 +42,7 @@ public class DomainModelHandler extends DefaultHandler {
     private DomainModel domainModel;
     private Entity entity;
     private Value value;
+    private EntityListener entityListener;
     
 	/**
 	 * startElement
@@ -60,15 +64,15 @@ public class DomainModelHandler extends DefaultHandler {
 			Attributes attrs)
 			throws SAXException {
 		
-	    resetCharacters();
+	    // only the descriptions use character data
+	    resetCharacters(TAG_ENTITY_DESCRIPTION.equals(qName)
+	    		|| TAG_VALUE_DESCRIPTION.equals(qName));
 	    
 		if(TAG_DOMAIN_MODEL.equals(qName)) {
 		    domainModel = new DomainModel();
-		    domainModel.setEntities(new ArrayList());
 		}
 		else if(TAG_ENTITY.equals(qName)) {
 		    entity = new Entity();
-		    entity.setValues(new ArrayList());
 		    entity.setName(attrs.getValue(ATTR_ENTITY_NAME));
 		    entity.setPackageName(attrs.getValue(ATTR_ENTITY_PACKAGE));
 		    entity.setSuperClass(attrs.getValue(ATTR_ENTITY_SUPERCLASS));
@@ -76,13 +80,15 @@ public class DomainModelHandler extends DefaultHandler {
 		    if(entity.getType() == null) {
 		    	entity.setType("entity");
 		    }
-		    domainModel.getEntities().add(entity);
+		    if(entityListener == null) {
+		    	domainModel.addEntity(entity);
+		    }
 		}
 		else if(TAG_VALUE.equals(qName)) {
 		    value = new Value();
 		    value.setName(attrs.getValue(ATTR_VALUE_NAME));
 		    value.setClassName(attrs.getValue(ATTR_VALUE_CLASS));
-		    entity.getValues().add(value);
+		    entity.addValue(value);
 		}		
 	}
 	
@@ -106,6 +112,19 @@ public class DomainModelHandler extends DefaultHandler {
 	    else if(TAG_VALUE_DESCRIPTION.equals(qName)) {
 	        value.setDescription(getCharacters(true));
 	    }     
+	    else if(TAG_ENTITY.equals(qName) && (entityListener != null)) {
+	        try {
+	            entityListener.entityParsed(entity);
+	        }
+	        catch(SAXException e) {
+	            throw e;
+	        }
+	        catch(Exception e) {
+	            throw new SAXException(e);
+	        }
+	        entity = null;
+	        value = null;
+	    }
 	}
     
 	/**
@@ -118,4 +137,25 @@ public class DomainModelHandler extends DefaultHandler {
     public DomainModel getDomainModel() {        
         return domainModel;
     }
+
+	/**
+	 * Getter method for entityListener.
+	 * 
+	 * @return the listener receiving the parsed entities, or null.
+	 */
+    public EntityListener getEntityListener() {
+        return entityListener;
+    }
+
+	/**
+	 * Setter method for entityListener.
+	 * <p>
+	 * When set the parsed entities are handed to the listener instead of being
+	 * added to the DomainModel.
+	 * 
+	 * @param entityListener The entityListener to set.
+	 */
+    public void setEntityListener(EntityListener entityListener) {
+        this.entityListener = entityListener;
+    }
 }
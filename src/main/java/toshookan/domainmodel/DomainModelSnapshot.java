@@ -0,0 +1,466 @@
+package toshookan.domainmodel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A binary copy of a parsed DomainModel that is read instead of the XML while
+ * the XML is unchanged.
+ * <p>
+ * The snapshot holds the SHA-256 hash of the XML it was created from, a table
+ * of the distinct strings of the model and fixed size records for the
+ * entities and values that refer to the strings by index. Reading it maps the
+ * file into memory and decodes every distinct string once, there is no
+ * tokenizing and no per element callback as with SAX.
+ * <p>
+ * Layout, all numbers are big endian ints:
+ *
+ * <pre>
+ * header   magic, version, 32 byte XML hash, string count, entity count, value count
+ * strings  string count + 1 byte offsets into the string data, then the UTF-8 string data
+ * entities name, package, super-class, type, description, first value, value count
+ * values   name, class, description
+ * </pre>
+ *
+ * A string index of -1 stands for null. The snapshot is limited to 2GB, a
+ * larger model is not snapshotted.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public final class DomainModelSnapshot {
+
+    private static final String CLASSNAME = DomainModelSnapshot.class
+            .getName();
+
+    private static final Logger LOGGER = Logger.getLogger(CLASSNAME);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * "TSDM", the first four bytes of every snapshot.
+     */
+    private static final int MAGIC = 0x5453444d;
+
+    /*
+     * The version of the layout, a snapshot of another version is ignored.
+     */
+    private static final int VERSION = 1;
+
+    private static final int HASH_LENGTH = 32;
+
+    private static final int HEADER_LENGTH = 4 * 2 + HASH_LENGTH + 4 * 3;
+
+    private static final int ENTITY_RECORD_LENGTH = 4 * 7;
+
+    private static final int VALUE_RECORD_LENGTH = 4 * 3;
+
+    /**
+     * Constructor for class DomainModelSnapshot.
+     */
+    private DomainModelSnapshot() {
+        // static methods only
+    }
+
+    /**
+     * Returns the model of the XML file, read from the snapshot if it was
+     * created from the same XML and parsed otherwise. After parsing the
+     * snapshot is written for the next run, a snapshot that can not be
+     * written is logged and ignored.
+     *
+     * @param xml
+     *            the DomainModel XML file.
+     * @param snapshot
+     *            the snapshot file.
+     * @param metrics
+     *            times reading the model as the parse phase, may be null.
+     * @return the model.
+     * @throws Exception
+     *             when the XML can not be read or parsed.
+     */
+    public static DomainModel load(File xml, File snapshot,
+            GenerationMetrics metrics) throws Exception {
+
+        DomainModelHandler handler;
+        DomainModel model;
+        byte[] hash;
+        long start;
+
+        hash = hash(xml);
+
+        start = (metrics != null) ? metrics.begin() : 0;
+        model = read(snapshot, hash);
+        if (model != null) {
+            if (metrics != null) {
+                metrics.end(GenerationMetrics.Phase.PARSE, start,
+                        snapshot.getPath());
+            }
+            LOGGER.fine("read the model from " + snapshot);
+            return model;
+        }
+
+        handler = new DomainModelHandler();
+        handler.setMetrics(metrics);
+        handler.parse(xml);
+        model = handler.getDomainModel();
+        try {
+            write(model, hash, snapshot);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write the model snapshot "
+                    + snapshot, e);
+        }
+        return model;
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file.
+     *
+     * @param file
+     *            the file to hash.
+     * @return the hash.
+     * @throws IOException
+     *             when the file can not be read.
+     */
+    public static byte[] hash(File file) throws IOException {
+
+        MessageDigest digest;
+        ByteBuffer buffer;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        buffer = ByteBuffer.allocate(1 << 16);
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally {
+            channel.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Reads the model from a snapshot.
+     *
+     * @param snapshot
+     *            the snapshot file.
+     * @param hash
+     *            the hash of the current XML.
+     * @return the model, or null if the snapshot does not exist, was created
+     *         from other XML, has another version or is damaged.
+     * @throws IOException
+     *             when the snapshot exists but can not be read.
+     */
+    public static DomainModel read(File snapshot, byte[] hash)
+            throws IOException {
+
+        MappedByteBuffer buffer;
+
+        if (!snapshot.isFile() || (snapshot.length() < HEADER_LENGTH)
+                || (snapshot.length() > Integer.MAX_VALUE)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(snapshot.toPath(),
+                StandardOpenOption.READ);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+                    .size());
+        }
+        finally {
+            // the mapping stays valid after the channel is closed
+            channel.close();
+        }
+        try {
+            return read(buffer, hash);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException | NegativeArraySizeException e) {
+            LOGGER.warning("Ignoring the damaged model snapshot " + snapshot);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the model from the mapped snapshot.
+     *
+     * @param buffer
+     *            the snapshot.
+     * @param hash
+     *            the hash of the current XML.
+     * @return the model, null if the snapshot is stale.
+     */
+    private static DomainModel read(ByteBuffer buffer, byte[] hash) {
+
+        byte[] snapshotHash = new byte[HASH_LENGTH];
+        String[] strings;
+        int stringCount;
+        int entityCount;
+        int valueCount;
+        int dataStart;
+        int entitiesStart;
+        int valuesStart;
+        int[] offsets;
+        byte[] bytes;
+        DomainModel model;
+        Entity entity;
+        Value value;
+        int firstValue;
+        int entityValueCount;
+
+        if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+            return null;
+        }
+        buffer.get(snapshotHash);
+        if (!MessageDigest.isEqual(snapshotHash, hash)) {
+            return null;
+        }
+        stringCount = buffer.getInt();
+        entityCount = buffer.getInt();
+        valueCount = buffer.getInt();
+
+        offsets = new int[stringCount + 1];
+        for (int i = 0; i <= stringCount; ++i) {
+            offsets[i] = buffer.getInt();
+        }
+        dataStart = buffer.position();
+        entitiesStart = dataStart + offsets[stringCount];
+        valuesStart = entitiesStart + entityCount * ENTITY_RECORD_LENGTH;
+        if ((valuesStart + (long) valueCount * VALUE_RECORD_LENGTH) != buffer
+                .limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        strings = new String[stringCount];
+        bytes = new byte[256];
+        for (int i = 0; i < stringCount; ++i) {
+            int length = offsets[i + 1] - offsets[i];
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, UTF_8);
+        }
+
+        model = new DomainModel();
+        for (int i = 0; i < entityCount; ++i) {
+            buffer.position(entitiesStart + i * ENTITY_RECORD_LENGTH);
+            entity = new Entity();
+            entity.setName(string(strings, buffer.getInt()));
+            entity.setPackageName(string(strings, buffer.getInt()));
+            entity.setSuperClass(string(strings, buffer.getInt()));
+            entity.setType(string(strings, buffer.getInt()));
+            entity.setDescription(string(strings, buffer.getInt()));
+            firstValue = buffer.getInt();
+            entityValueCount = buffer.getInt();
+
+            buffer.position(valuesStart + firstValue * VALUE_RECORD_LENGTH);
+            for (int j = 0; j < entityValueCount; ++j) {
+                value = new Value();
+                value.setName(string(strings, buffer.getInt()));
+                value.setClassName(string(strings, buffer.getInt()));
+                value.setDescription(string(strings, buffer.getInt()));
+                entity.addValue(value);
+            }
+            model.addEntity(entity);
+        }
+
+        return model;
+    }
+
+    /**
+     * Looks up a string of the string table.
+     *
+     * @param strings
+     *            the string table.
+     * @param index
+     *            the index of the string, -1 for null.
+     * @return the string.
+     */
+    private static String string(String[] strings, int index) {
+        return (index < 0) ? null : strings[index];
+    }
+
+    /**
+     * Writes the snapshot of a model. The snapshot is written to a temporary
+     * file first which then replaces the snapshot, so a concurrent reader
+     * never sees a partially written snapshot.
+     *
+     * @param model
+     *            the model parsed from the XML.
+     * @param hash
+     *            the hash of the XML.
+     * @param snapshot
+     *            the snapshot file.
+     * @throws IOException
+     *             when the snapshot can not be written, or the model is too
+     *             large for a snapshot.
+     */
+    public static void write(DomainModel model, byte[] hash, File snapshot)
+            throws IOException {
+
+        Map<String, Integer> stringIndexes;
+        List<byte[]> stringBytes;
+        int[] entityStrings;
+        int[] valueStrings;
+        int[] valueCounts;
+        int entityCount;
+        int valueCount;
+        long dataLength;
+        long length;
+        int entityIndex;
+        int e;
+        int v;
+
+        entityCount = model.getEntities().size();
+        valueCount = 0;
+        for (Entity entity : model.getEntities()) {
+            valueCount += entity.getValues().size();
+        }
+
+        stringIndexes = new HashMap<String, Integer>();
+        stringBytes = new ArrayList<byte[]>();
+        entityStrings = new int[entityCount * 5];
+        valueStrings = new int[valueCount * 3];
+        valueCounts = new int[entityCount];
+        entityIndex = 0;
+        e = 0;
+        v = 0;
+        for (Entity entity : model.getEntities()) {
+            valueCounts[entityIndex++] = entity.getValues().size();
+            entityStrings[e++] = intern(entity.getName(), stringIndexes,
+                    stringBytes);
+            entityStrings[e++] = intern(entity.getPackageName(),
+                    stringIndexes, stringBytes);
+            entityStrings[e++] = intern(entity.getSuperClass(),
+                    stringIndexes, stringBytes);
+            entityStrings[e++] = intern(entity.getType(), stringIndexes,
+                    stringBytes);
+            entityStrings[e++] = intern(entity.getDescription(),
+                    stringIndexes, stringBytes);
+            for (Value value : entity.getValues()) {
+                valueStrings[v++] = intern(value.getName(), stringIndexes,
+                        stringBytes);
+                valueStrings[v++] = intern(value.getClassName(),
+                        stringIndexes, stringBytes);
+                valueStrings[v++] = intern(value.getDescription(),
+                        stringIndexes, stringBytes);
+            }
+        }
+
+        dataLength = 0;
+        for (byte[] bytes : stringBytes) {
+            dataLength += bytes.length;
+        }
+        length = HEADER_LENGTH + 4L * (stringBytes.size() + 1) + dataLength
+                + (long) entityCount * ENTITY_RECORD_LENGTH
+                + (long) valueCount * VALUE_RECORD_LENGTH;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("The model is too large for a snapshot: "
+                    + length + " bytes");
+        }
+
+        Path target = snapshot.toPath().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = FileOutputSink.createTempFile(target);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp),
+                            1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                out.writeInt(stringBytes.size());
+                out.writeInt(entityCount);
+                out.writeInt(valueCount);
+
+                int offset = 0;
+                out.writeInt(offset);
+                for (byte[] bytes : stringBytes) {
+                    offset += bytes.length;
+                    out.writeInt(offset);
+                }
+                for (byte[] bytes : stringBytes) {
+                    out.write(bytes);
+                }
+
+                int firstValue = 0;
+                for (int i = 0; i < entityCount; ++i) {
+                    for (int j = 0; j < 5; ++j) {
+                        out.writeInt(entityStrings[i * 5 + j]);
+                    }
+                    out.writeInt(firstValue);
+                    out.writeInt(valueCounts[i]);
+                    firstValue += valueCounts[i];
+                }
+                for (int i = 0; i < valueStrings.length; ++i) {
+                    out.writeInt(valueStrings[i]);
+                }
+            }
+            finally {
+                out.close();
+            }
+            FileOutputSink.replace(temp, target);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns the index of a string in the string table, adding it on first
+     * use.
+     *
+     * @param string
+     *            the string, may be null.
+     * @param stringIndexes
+     *            the indexes of the strings added so far.
+     * @param stringBytes
+     *            the UTF-8 encoded strings added so far.
+     * @return the index, -1 for null.
+     */
+    private static int intern(String string,
+            Map<String, Integer> stringIndexes, List<byte[]> stringBytes) {
+
+        Integer index;
+
+        if (string == null) {
+            return -1;
+        }
+        index = stringIndexes.get(string);
+        if (index == null) {
+            index = Integer.valueOf(stringBytes.size());
+            stringIndexes.put(string, index);
+            stringBytes.add(string.getBytes(UTF_8));
+        }
+        return index.intValue();
+    }
+}
@@ -1,7 +1,10 @@
 package toshookan.domainmodel;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Short Description.
@@ -18,31 +21,43 @@ public class Entity {
     private String name;
     private String packageName;
     private String description;   
-    private List values;
+    private final List<Value> values = new ArrayList<Value>();
+    private final Map<String, Value> valuesByName = new HashMap<String, Value>();
     private String superClass;
     private String type;
     
 	/**
-	 * short summary of the method
+	 * Returns the value with the name.
 	 * <p>
-	 * full description
+	 * The values are indexed by name as they are added.
 	 * 
-	 * @param propertyName
-	 * @return Property
+	 * @param valueName
+	 * @return the first value added with the name, or null.
 	 */
     public Value getValue(String valueName) {
-        
-        Iterator valueIter = null;
-        Value value = null;
-        
-        valueIter = values.iterator();
-        while(valueIter.hasNext()) {
-            value = (Value)valueIter.next();
-            if(value.getName().equals(valueName)) {
-                return value;
-            }
+        return valuesByName.get(valueName);
+    }
+
+	/**
+	 * Adds a value to the entity and its index. The name of the value must
+	 * not change afterwards.
+	 * 
+	 * @param value The value to add.
+	 */
+    public void addValue(Value value) {
+        values.add(value);
+        if (!valuesByName.containsKey(value.getName())) {
+            valuesByName.put(value.getName(), value);
         }
-        return null;
+    }
+
+	/**
+	 * Returns the package and the name of the entity.
+	 * 
+	 * @return the fully qualified name, the name if there is no package.
+	 */
+    public String getQualifiedName() {
+        return (packageName == null) ? name : packageName + "." + name;
     }
 
 	/**
@@ -137,23 +152,30 @@ public class Entity {
     /**
      * Getter method for values.
      * <p>
-     * Full Description.
+     * The values can not be changed through the returned list, use
+     * {@link #addValue(Value)} so they are indexed.
      * 
      * @return the value of values.
      */
-    public List getValues() {
-        return values;
+    public List<Value> getValues() {
+        return Collections.unmodifiableList(values);
     }
     
     /**
      * Setter method for values.
      * <p>
-     * Full Description.
+     * Replaces the values of the entity and rebuilds the index. The values
+     * are copied first, so the list may be a view of the current values.
      * 
      * @param values The values to set.
      */
-    public void setValues(List values) {
-        this.values = values;
+    public void setValues(List<Value> values) {
+        List<Value> copy = new ArrayList<Value>(values);
+        this.values.clear();
+        valuesByName.clear();
+        for (Value value : copy) {
+            addValue(value);
+        }
     }
 
 	/**
@@ -0,0 +1,23 @@
+package toshookan.domainmodel;
+
+/**
+ * Receives the entities of a domain model as soon as they have been parsed.
+ * <p>
+ * Used with DomainModelHandler to process a model one entity at a time
+ * instead of holding the whole model in memory.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public interface EntityListener {
+
+    /**
+     * Called once the entity and all of its values have been parsed.
+     *
+     * @param entity
+     *            the parsed entity.
+     * @throws Exception
+     *             when the entity can not be processed, the parse is
+     *             aborted.
+     */
+    public void entityParsed(Entity entity) throws Exception;
+}
@@ -0,0 +1,207 @@
+package toshookan.domainmodel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes the generated files below a root directory, leaving files whose
+ * content is unchanged untouched.
+ * <p>
+ * Keeping the modification time of unchanged files lets incremental compilers
+ * skip them. The existing file is compared by size first and only read when
+ * the sizes match. Changed files are written to a temporary file in the target
+ * directory which then replaces the target atomically, so a reader never sees
+ * a partially written file. A replaced file keeps its permissions.
+ * <p>
+ * Directories are only created once per sink, the generated files of a
+ * package share their directory.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class FileOutputSink implements OutputSink {
+
+    private final Path root;
+    private final Set<Path> createdDirs;
+
+    /**
+     * Constructor for class FileOutputSink.
+     *
+     * @param root
+     *            the directory the file names are relative to.
+     */
+    public FileOutputSink(Path root) {
+        this.root = root;
+        this.createdDirs = ConcurrentHashMap.<Path> newKeySet();
+    }
+
+    /**
+     * Writes the file if it does not exist or its content differs.
+     *
+     * @param fileName
+     * @param content
+     * @throws IOException
+     * @see toshookan.domainmodel.OutputSink#write(java.lang.String, byte[])
+     */
+    public void write(String fileName, byte[] content) throws IOException {
+
+        Path file = root.resolve(fileName);
+
+        if (isUnchanged(file, content)) {
+            return;
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        if (!createdDirs.contains(dir)) {
+            Files.createDirectories(dir);
+            createdDirs.add(dir);
+        }
+        Path temp = createTempFile(file);
+        try {
+            write(temp, content);
+            replace(temp, file);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file in the directory of the target.
+     * <p>
+     * The temporary file gets the permissions of the target when it exists,
+     * otherwise the default permissions of a new file which follow the umask.
+     * Files.createTempFile() would restrict it to the owner, and the moved
+     * file would keep those permissions.
+     *
+     * @param target
+     *            the file the temporary file will replace.
+     * @return the temporary file.
+     * @throws IOException
+     *             when the file can not be created.
+     */
+    static Path createTempFile(Path target) throws IOException {
+
+        Path dir = target.toAbsolutePath().getParent();
+        String prefix = target.getFileName().toString();
+        Path temp;
+
+        while (true) {
+            temp = dir.resolve(prefix
+                    + Long.toString(ThreadLocalRandom.current().nextLong()
+                            & Long.MAX_VALUE) + ".tmp");
+            try {
+                Files.createFile(temp);
+                break;
+            }
+            catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+        PosixFileAttributeView view = Files.getFileAttributeView(target,
+                PosixFileAttributeView.class);
+        if (view != null) {
+            try {
+                Files.setPosixFilePermissions(temp, view.readAttributes()
+                        .permissions());
+            }
+            catch (NoSuchFileException e) {
+                // a new file keeps the default permissions
+            }
+            catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+        }
+        return temp;
+    }
+
+    /**
+     * Moves the temporary file over the target, atomically when the file
+     * system supports it.
+     *
+     * @param temp
+     *            the temporary file.
+     * @param target
+     *            the file to replace.
+     * @throws IOException
+     *             when the file can not be moved.
+     */
+    static void replace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the content to a file with a single channel, without the stream
+     * buffering of Files.write().
+     *
+     * @param file
+     *            the file to write.
+     * @param content
+     *            the content of the file.
+     * @throws IOException
+     *             when the file can not be written.
+     */
+    private static void write(Path file, byte[] content) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Determines if the file already holds the content.
+     *
+     * @param file
+     *            the file to check.
+     * @param content
+     *            the new content.
+     * @return true if the file exists with exactly the same content.
+     * @throws IOException
+     *             when the existing file can not be read.
+     */
+    private static boolean isUnchanged(Path file, byte[] content)
+            throws IOException {
+
+        if (!Files.isRegularFile(file) || (Files.size(file) != content.length)) {
+            return false;
+        }
+        return Arrays.equals(Files.readAllBytes(file), content);
+    }
+
+    /**
+     * Getter method for root.
+     *
+     * @return the directory the file names are relative to.
+     */
+    public Path getRoot() {
+        return root;
+    }
+}
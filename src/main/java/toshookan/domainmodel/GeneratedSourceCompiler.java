@@ -0,0 +1,337 @@
+package toshookan.domainmodel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles generated sources in memory with the compiler of the running JDK.
+ * <p>
+ * The sources are handed to the compiler straight from memory, typically from
+ * a MemoryOutputSink, and the class files are kept in memory as well, so
+ * nothing is written to or read back from disk. Each diagnostic is attributed
+ * to the entity of the model its source was generated from, which points a
+ * template error at an entity that triggers it.
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * MemoryOutputSink sink = new MemoryOutputSink();
+ * generator.setOutputSink(sink);
+ * generator.execute();
+ * GeneratedSourceCompiler.Result result = new GeneratedSourceCompiler()
+ *         .compile(sink.getFiles(), model);
+ * </pre>
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class GeneratedSourceCompiler {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<String> options;
+
+    /**
+     * Constructor for class GeneratedSourceCompiler compiling against the
+     * class path of the running JVM, without annotation processing.
+     */
+    public GeneratedSourceCompiler() {
+        this(Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                "-proc:none", "-encoding", "UTF-8"));
+    }
+
+    /**
+     * Constructor for class GeneratedSourceCompiler.
+     *
+     * @param options
+     *            the javac options, e.g. the class path the generated tests
+     *            compile against.
+     */
+    public GeneratedSourceCompiler(List<String> options) {
+        this.options = new ArrayList<String>(options);
+    }
+
+    /**
+     * Compiles the Java sources among the generated files.
+     *
+     * @param files
+     *            the generated files, names relative to the output root mapped
+     *            to their UTF-8 content. Files that are not Java sources are
+     *            ignored.
+     * @param domainModel
+     *            the model the files were generated from, used to attribute
+     *            the diagnostics, may be null.
+     * @return the class files and the diagnostics.
+     * @throws IllegalStateException
+     *             when the JVM does not provide a Java compiler.
+     * @throws IOException
+     *             when the file manager can not be closed.
+     */
+    public Result compile(Map<String, byte[]> files, DomainModel domainModel)
+            throws IOException {
+
+        JavaCompiler compiler;
+        DiagnosticCollector<JavaFileObject> collector;
+        List<JavaFileObject> sources;
+        Map<String, Entity> fileEntities;
+        Result result;
+
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException(
+                    "No Java compiler available, run on a JDK");
+        }
+
+        sources = new ArrayList<JavaFileObject>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            if (file.getKey().endsWith(".java")) {
+                sources.add(new SourceFile(file.getKey(), file.getValue()));
+            }
+        }
+
+        result = new Result();
+        collector = new DiagnosticCollector<JavaFileObject>();
+        ClassFileManager fileManager = new ClassFileManager(
+                compiler.getStandardFileManager(collector, null, UTF_8),
+                result.classes);
+        try {
+            result.success = compiler.getTask(null, fileManager, collector,
+                    options, null, sources).call().booleanValue();
+        }
+        finally {
+            fileManager.close();
+        }
+
+        fileEntities = (domainModel != null) ? VelocityDomainModelCodeGenerator
+                .getFileEntities(domainModel.getEntities()) : Collections
+                .<String, Entity> emptyMap();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : collector
+                .getDiagnostics()) {
+            String fileName = (diagnostic.getSource() instanceof SourceFile) ? ((SourceFile) diagnostic
+                    .getSource()).fileName : null;
+            result.diagnostics.add(new EntityDiagnostic(diagnostic, fileName,
+                    (fileName != null) ? fileEntities.get(fileName) : null));
+        }
+        return result;
+    }
+
+    /**
+     * The outcome of a compilation.
+     */
+    public static class Result {
+
+        private final SortedMap<String, byte[]> classes = new ConcurrentSkipListMap<String, byte[]>();
+        private final List<EntityDiagnostic> diagnostics = new ArrayList<EntityDiagnostic>();
+        private boolean success;
+
+        /**
+         * Determines if the compilation succeeded.
+         *
+         * @return true if there were no errors.
+         */
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * Returns the class files.
+         *
+         * @return the binary class names mapped to the class files.
+         */
+        public Map<String, byte[]> getClasses() {
+            return Collections.unmodifiableMap(classes);
+        }
+
+        /**
+         * Returns the diagnostics in the order they were reported.
+         *
+         * @return the diagnostics.
+         */
+        public List<EntityDiagnostic> getDiagnostics() {
+            return Collections.unmodifiableList(diagnostics);
+        }
+
+        /**
+         * Writes the class files to a sink, e.g. an ArchiveOutputSink to
+         * create a jar or a FileOutputSink to create a class directory.
+         *
+         * @param sink
+         *            the destination of the class files.
+         * @throws IOException
+         *             when a class file can not be written.
+         */
+        public void writeTo(OutputSink sink) throws IOException {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                sink.write(entry.getKey().replace('.', '/') + ".class",
+                        entry.getValue());
+            }
+        }
+
+        /**
+         * Creates a class loader for the compiled classes.
+         *
+         * @param parent
+         *            the loader of the classes the generated code depends on.
+         * @return the class loader.
+         */
+        public ClassLoader createClassLoader(ClassLoader parent) {
+            return new ClassLoader(parent) {
+                protected Class<?> findClass(String name)
+                        throws ClassNotFoundException {
+                    byte[] bytes = classes.get(name);
+                    if (bytes == null) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    return defineClass(name, bytes, 0, bytes.length);
+                }
+            };
+        }
+    }
+
+    /**
+     * A compiler diagnostic attributed to the entity its source was generated
+     * from.
+     */
+    public static class EntityDiagnostic {
+
+        private final Diagnostic<? extends JavaFileObject> diagnostic;
+        private final String fileName;
+        private final Entity entity;
+
+        /**
+         * Constructor for class EntityDiagnostic.
+         *
+         * @param diagnostic
+         *            the compiler diagnostic.
+         * @param fileName
+         *            the generated file, null if the diagnostic has no source.
+         * @param entity
+         *            the entity the file was generated from, null if unknown.
+         */
+        EntityDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic,
+                String fileName, Entity entity) {
+            this.diagnostic = diagnostic;
+            this.fileName = fileName;
+            this.entity = entity;
+        }
+
+        /**
+         * Getter method for diagnostic.
+         *
+         * @return the compiler diagnostic.
+         */
+        public Diagnostic<? extends JavaFileObject> getDiagnostic() {
+            return diagnostic;
+        }
+
+        /**
+         * Getter method for fileName.
+         *
+         * @return the generated file relative to the output root, null if the
+         *         diagnostic has no source.
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Getter method for entity.
+         *
+         * @return the entity the file was generated from, null if unknown.
+         */
+        public Entity getEntity() {
+            return entity;
+        }
+
+        /**
+         * Returns the diagnostic prefixed by the entity and the position.
+         *
+         * @return a string representation of the diagnostic.
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+
+            StringBuilder result = new StringBuilder(128);
+
+            result.append(diagnostic.getKind());
+            if (entity != null) {
+                result.append(" entity ").append(entity.getPackageName())
+                        .append('.').append(entity.getName());
+            }
+            if (fileName != null) {
+                result.append(" (").append(fileName).append(':')
+                        .append(diagnostic.getLineNumber()).append(')');
+            }
+            result.append(": ").append(diagnostic.getMessage(null));
+            return result.toString();
+        }
+    }
+
+    /**
+     * A generated source held in memory.
+     */
+    private static final class SourceFile extends SimpleJavaFileObject {
+
+        private final String fileName;
+        private final byte[] content;
+
+        SourceFile(String fileName, byte[] content) {
+            super(URI.create("memory:///" + fileName), Kind.SOURCE);
+            this.fileName = fileName;
+            this.content = content;
+        }
+
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return new String(content, UTF_8);
+        }
+    }
+
+    /**
+     * A file manager that keeps the class files in memory.
+     */
+    private static final class ClassFileManager extends
+            ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String, byte[]> classes;
+
+        ClassFileManager(StandardJavaFileManager fileManager,
+                Map<String, byte[]> classes) {
+            super(fileManager);
+            this.classes = classes;
+        }
+
+        public JavaFileObject getJavaFileForOutput(Location location,
+                final String className, JavaFileObject.Kind kind,
+                FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("memory:///"
+                    + className.replace('.', '/') + kind.extension), kind) {
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
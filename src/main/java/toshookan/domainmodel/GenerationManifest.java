@@ -0,0 +1,413 @@
+package toshookan.domainmodel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records a fingerprint for every generated file so unchanged files can be
+ * skipped on the next run.
+ * <p>
+ * A fingerprint covers everything the generated file depends on: the entity
+ * definition, the content of the template and the generator version. The
+ * manifest is stored as a properties file that maps the file name, relative
+ * to the output root, to its fingerprint.
+ * <p>
+ * The manifest also records a fingerprint per entity, covering the entity and
+ * all of the templates its files may be generated from, so an unchanged
+ * entity can be skipped without building its context. The entity records
+ * are keyed by the qualified entity name prefixed with
+ * {@value #ENTITY_PREFIX}, which can not start a file name.
+ * <p>
+ * The entries are stored sorted and without the date comment of
+ * {@link Properties#store(java.io.OutputStream, String)}, the manifest is only
+ * rewritten when its content changes so a run that changed nothing leaves it
+ * untouched.
+ * <p>
+ * The manifest is safe to use from several worker threads.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+class GenerationManifest {
+
+	/**
+	 * The version of the generator. Changing the version invalidates all of
+	 * the fingerprints so it must be changed whenever the generator produces
+	 * different output for the same model and templates.
+	 */
+	static final String GENERATOR_VERSION = "0.0.2";
+
+	/**
+	 * The prefix of the keys of the entity records.
+	 */
+	static final String ENTITY_PREFIX = "@";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File file;
+	private final Properties previous;
+	private final Properties current;
+	private final Set<String> visited;
+
+	/**
+	 * Constructor for class GenerationManifest.
+	 * <p>
+	 * Loads the fingerprints of the previous run if the manifest file exists.
+	 *
+	 * @param file
+	 *            the manifest file.
+	 * @throws IOException
+	 *             when the manifest exists but can not be read.
+	 */
+	GenerationManifest(File file) throws IOException {
+
+		this.file = file;
+		this.previous = new Properties();
+		this.current = new Properties();
+		this.visited = ConcurrentHashMap.<String> newKeySet();
+
+		if (file.exists()) {
+			InputStream in = new FileInputStream(file);
+			try {
+				previous.load(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Determines if a generated file is unchanged since the previous run.
+	 * <p>
+	 * The file is remembered as part of this run whatever the result so it is
+	 * not removed by {@link #removeStaleFiles(File)}.
+	 *
+	 * @param fileName
+	 *            the generated file name relative to the output root.
+	 * @param fingerprint
+	 *            the fingerprint of the inputs of the file.
+	 * @param generated
+	 *            the generated file.
+	 * @return true if the file exists and its fingerprint is unchanged.
+	 */
+	boolean isUnchanged(String fileName, String fingerprint, File generated) {
+		visited.add(fileName);
+		return fingerprint.equals(previous.getProperty(fileName))
+				&& generated.exists();
+	}
+
+	/**
+	 * Determines if all of the files of an entity are unchanged since the
+	 * previous run, so the entity does not have to be rendered.
+	 * <p>
+	 * The entity is unchanged if its fingerprint matches the previous run and
+	 * the files the previous run recorded for it still exist. In that case
+	 * the files and their fingerprints are carried over to this run, a file
+	 * name the previous run did not record was not generated for the entity
+	 * and is still not generated.
+	 *
+	 * @param entityName
+	 *            the qualified name of the entity.
+	 * @param fingerprint
+	 *            the fingerprint of the entity and of its templates.
+	 * @param fileNames
+	 *            the names of all of the files that may be generated for the
+	 *            entity, relative to the output root.
+	 * @param outputRoot
+	 *            the directory the file names are relative to.
+	 * @return true if the entity is unchanged.
+	 */
+	boolean isEntityUnchanged(String entityName, String fingerprint,
+			Collection<String> fileNames, File outputRoot) {
+
+		String previousFingerprint;
+
+		if (!fingerprint.equals(previous.getProperty(ENTITY_PREFIX
+				+ entityName))) {
+			return false;
+		}
+		for (String fileName : fileNames) {
+			if (previous.getProperty(fileName) != null
+					&& !new File(outputRoot, fileName).exists()) {
+				return false;
+			}
+		}
+		for (String fileName : fileNames) {
+			previousFingerprint = previous.getProperty(fileName);
+			if (previousFingerprint != null) {
+				visited.add(fileName);
+				current.setProperty(fileName, previousFingerprint);
+			}
+		}
+		current.setProperty(ENTITY_PREFIX + entityName, fingerprint);
+		return true;
+	}
+
+	/**
+	 * Records the fingerprint of an entity whose files have all been
+	 * generated or found unchanged.
+	 *
+	 * @param entityName
+	 *            the qualified name of the entity.
+	 * @param fingerprint
+	 *            the fingerprint of the entity and of its templates.
+	 */
+	void putEntity(String entityName, String fingerprint) {
+		current.setProperty(ENTITY_PREFIX + entityName, fingerprint);
+	}
+
+	/**
+	 * Records the fingerprint of a successfully generated file.
+	 *
+	 * @param fileName
+	 *            the generated file name relative to the output root.
+	 * @param fingerprint
+	 *            the fingerprint of the inputs of the file.
+	 */
+	void put(String fileName, String fingerprint) {
+		current.setProperty(fileName, fingerprint);
+	}
+
+	/**
+	 * Deletes the files recorded by the previous run that were not part of
+	 * this run, i.e. the output of entities that have been removed.
+	 *
+	 * @param outputRoot
+	 *            the directory the file names are relative to.
+	 * @return the number of deleted files.
+	 */
+	int removeStaleFiles(File outputRoot) {
+
+		int count = 0;
+
+		for (String fileName : previous.stringPropertyNames()) {
+			if (!fileName.startsWith(ENTITY_PREFIX)
+					&& !visited.contains(fileName)
+					&& new File(outputRoot, fileName).delete()) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Keeps the fingerprints of the previous run for the files that this run
+	 * did not record, instead of removing them as stale. Used when some of
+	 * the entities failed, the next run checks their files again and removes
+	 * those that are really stale.
+	 * <p>
+	 * The entity records are not kept, a failed entity may have written some
+	 * of its files so it is checked file by file on the next run.
+	 */
+	void retainPrevious() {
+		for (String fileName : previous.stringPropertyNames()) {
+			if (!fileName.startsWith(ENTITY_PREFIX)
+					&& current.getProperty(fileName) == null) {
+				current.setProperty(fileName, previous.getProperty(fileName));
+			}
+		}
+	}
+
+	/**
+	 * Writes the fingerprints of this run to the manifest file, sorted by
+	 * name. The file is left untouched if its content is unchanged.
+	 *
+	 * @throws IOException
+	 *             when the manifest can not be written.
+	 */
+	void store() throws IOException {
+
+		File absoluteFile;
+		StringBuilder buffer;
+
+		buffer = new StringBuilder();
+		buffer.append("#toshookan generation manifest\n");
+		for (String name : new TreeSet<String>(current.stringPropertyNames())) {
+			appendEscaped(buffer, name, true);
+			buffer.append('=');
+			appendEscaped(buffer, current.getProperty(name), false);
+			buffer.append('\n');
+		}
+		absoluteFile = file.getAbsoluteFile();
+		new FileOutputSink(absoluteFile.getParentFile().toPath()).write(
+				absoluteFile.getName(), buffer.toString().getBytes(ISO_8859_1));
+	}
+
+	/**
+	 * Appends a key or a value escaped the way
+	 * {@link Properties#store(java.io.OutputStream, String)} escapes it, so the
+	 * manifest can be loaded with {@link Properties#load(InputStream)}.
+	 *
+	 * @param buffer
+	 *            the buffer to append to.
+	 * @param string
+	 *            the key or value.
+	 * @param key
+	 *            true if the string is a key, all of the spaces of a key are
+	 *            escaped but only the leading space of a value.
+	 */
+	private static void appendEscaped(StringBuilder buffer, String string,
+			boolean key) {
+
+		char c;
+
+		for (int i = 0; i < string.length(); ++i) {
+			c = string.charAt(i);
+			switch (c) {
+			case ' ':
+				if (i == 0 || key) {
+					buffer.append('\\');
+				}
+				buffer.append(' ');
+				break;
+			case '\t':
+				buffer.append("\\t");
+				break;
+			case '\n':
+				buffer.append("\\n");
+				break;
+			case '\r':
+				buffer.append("\\r");
+				break;
+			case '\f':
+				buffer.append("\\f");
+				break;
+			case '\\':
+			case '=':
+			case ':':
+			case '#':
+			case '!':
+				buffer.append('\\').append(c);
+				break;
+			default:
+				if (c < 0x20 || c > 0x7e) {
+					buffer.append(String.format("\\u%04X", (int) c));
+				} else {
+					buffer.append(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the fingerprint of the parts of an entity that are visible to
+	 * the templates, together with the generator settings.
+	 *
+	 * @param entity
+	 *            the entity to fingerprint.
+	 * @param superClassEntity
+	 *            whether the super-class of the entity is an entity of the
+	 *            model.
+	 * @param settings
+	 *            the generator settings that are visible to the templates.
+	 * @return the hex encoded fingerprint.
+	 */
+	static String fingerprint(Entity entity, boolean superClassEntity,
+			Map<String, Object> settings) {
+
+		StringBuilder buffer;
+
+		buffer = new StringBuilder();
+		append(buffer, GENERATOR_VERSION);
+		append(buffer, String.valueOf(new TreeMap<String, Object>(settings)));
+		append(buffer, entity.getType());
+		append(buffer, entity.getPackageName());
+		append(buffer, entity.getName());
+		append(buffer, entity.getSuperClass());
+		append(buffer, String.valueOf(superClassEntity));
+		append(buffer, entity.getDescription());
+		for (Value value : entity.getValues()) {
+			append(buffer, value.getName());
+			append(buffer, value.getClassName());
+			append(buffer, value.getDescription());
+		}
+		return digest(buffer.toString().getBytes(UTF_8));
+	}
+
+	/**
+	 * Computes the fingerprint of a template file.
+	 *
+	 * @param template
+	 *            the template file.
+	 * @return the hex encoded fingerprint.
+	 * @throws IOException
+	 *             when the template can not be read.
+	 */
+	static String fingerprint(File template) throws IOException {
+		return digest(Files.readAllBytes(template.toPath()));
+	}
+
+	/**
+	 * Combines the fingerprints of all of the inputs of a generated file.
+	 *
+	 * @param entityFingerprint
+	 *            the fingerprint of the entity.
+	 * @param templateFingerprint
+	 *            the fingerprint of the template.
+	 * @return the hex encoded fingerprint.
+	 */
+	static String fingerprint(String entityFingerprint,
+			String templateFingerprint) {
+		return digest((entityFingerprint + templateFingerprint)
+				.getBytes(UTF_8));
+	}
+
+	/**
+	 * Appends a length prefixed string so adjacent values can not be confused
+	 * with each other, null is distinguished from the empty string.
+	 *
+	 * @param buffer
+	 *            the buffer to append to.
+	 * @param string
+	 *            the string to append.
+	 */
+	private static void append(StringBuilder buffer, String string) {
+		if (string == null) {
+			buffer.append("-1:");
+		} else {
+			buffer.append(string.length()).append(':').append(string);
+		}
+	}
+
+	/**
+	 * Hashes the bytes with SHA-256.
+	 *
+	 * @param bytes
+	 *            the bytes to hash.
+	 * @return the hex encoded hash.
+	 */
+	static String digest(byte[] bytes) {
+
+		byte[] hash;
+		char[] result;
+
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		result = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; ++i) {
+			result[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+			result[i * 2 + 1] = HEX[hash[i] & 0xf];
+		}
+		return new String(result);
+	}
+}
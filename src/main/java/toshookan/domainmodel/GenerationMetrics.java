@@ -0,0 +1,398 @@
+package toshookan.domainmodel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects where the time of a generator run goes.
+ * <p>
+ * Records the wall time of every phase (parse, context, template, merge and
+ * write), the render time of every entity, the number of bytes written and an
+ * estimate of the bytes allocated while rendering. The summary is written as a
+ * sorted properties file so runs can be compared by tools and by diff. When
+ * the JVM supports Java Flight Recorder every measurement is also committed as
+ * a toshookan.Generation event.
+ * <p>
+ * The metrics are safe to update from several worker threads.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class GenerationMetrics {
+
+    /**
+     * The measured phases of a run.
+     */
+    public enum Phase {
+        /** Parsing the model XML. */
+        PARSE,
+        /** Creating the template contexts. */
+        CONTEXT,
+        /** Looking up and parsing the templates. */
+        TEMPLATE,
+        /** Merging the templates. */
+        MERGE,
+        /** Handing the files to the output sink. */
+        WRITE
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * The number of slowest entities listed in the report.
+     */
+    private static final int SLOWEST_ENTITIES = 10;
+
+    /*
+     * GenerationEvent.commit(), null when the event class or JFR is missing.
+     * The event is compiled from its own source set, the main classes do not
+     * depend on jdk.jfr.
+     */
+    private static final MethodHandle COMMIT_EVENT = findCommitEvent();
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = getAllocationBean();
+
+    private final AtomicLongArray phaseNanos;
+    private final AtomicLongArray phaseCounts;
+    private final LongAdder bytesWritten;
+    private final LongAdder filesWritten;
+    private final LongAdder allocatedBytes;
+    private final PriorityQueue<EntityTime> slowest;
+    private long[] entityNanos;
+    private int entities;
+    private long startNanos;
+    private long endNanos;
+
+    /**
+     * Constructor for class GenerationMetrics.
+     */
+    public GenerationMetrics() {
+        phaseNanos = new AtomicLongArray(Phase.values().length);
+        phaseCounts = new AtomicLongArray(Phase.values().length);
+        bytesWritten = new LongAdder();
+        filesWritten = new LongAdder();
+        allocatedBytes = new LongAdder();
+        slowest = new PriorityQueue<EntityTime>();
+        entityNanos = new long[1024];
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the start time of a measurement.
+     *
+     * @return the current value of the nano time.
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of a measurement.
+     *
+     * @param phase
+     *            the measured phase.
+     * @param start
+     *            the value returned by {@link #begin()}.
+     * @param subject
+     *            the entity or file measured, only used for the JFR event.
+     */
+    public void end(Phase phase, long start, String subject) {
+
+        long nanos = System.nanoTime() - start;
+
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+        phaseCounts.incrementAndGet(phase.ordinal());
+        if (COMMIT_EVENT != null) {
+            commitEvent(phase.name(), subject, nanos, 0);
+        }
+    }
+
+    /**
+     * Records a file handed to the output sink.
+     *
+     * @param start
+     *            the value returned by {@link #begin()}.
+     * @param fileName
+     *            the file name.
+     * @param bytes
+     *            the size of the file.
+     */
+    public void endWrite(long start, String fileName, int bytes) {
+
+        long nanos = System.nanoTime() - start;
+
+        phaseNanos.addAndGet(Phase.WRITE.ordinal(), nanos);
+        phaseCounts.incrementAndGet(Phase.WRITE.ordinal());
+        bytesWritten.add(bytes);
+        filesWritten.increment();
+        if (COMMIT_EVENT != null) {
+            commitEvent(Phase.WRITE.name(), fileName, nanos, bytes);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far.
+     *
+     * @return the allocated bytes, -1 if the JVM can not measure it.
+     */
+    public long allocatedBytes() {
+        return (ALLOCATION_BEAN != null) ? ALLOCATION_BEAN
+                .getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    /**
+     * Records the rendering of an entity.
+     *
+     * @param entityName
+     *            the fully qualified name of the entity.
+     * @param start
+     *            the value returned by {@link #begin()}.
+     * @param allocatedStart
+     *            the value returned by {@link #allocatedBytes()}.
+     */
+    public void endEntity(String entityName, long start, long allocatedStart) {
+
+        long nanos = System.nanoTime() - start;
+
+        if (allocatedStart >= 0) {
+            allocatedBytes.add(allocatedBytes() - allocatedStart);
+        }
+        synchronized (this) {
+            if (entities == entityNanos.length) {
+                entityNanos = Arrays.copyOf(entityNanos, entities * 2);
+            }
+            entityNanos[entities++] = nanos;
+            if ((slowest.size() < SLOWEST_ENTITIES)
+                    || (slowest.peek().nanos < nanos)) {
+                slowest.add(new EntityTime(entityName, nanos));
+                if (slowest.size() > SLOWEST_ENTITIES) {
+                    slowest.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the end of the run.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the total wall time spent in a phase, summed over all threads.
+     *
+     * @param phase
+     *            the phase.
+     * @return the time in nanoseconds.
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * Returns the number of bytes handed to the output sink.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Returns a percentile of the entity render times.
+     *
+     * @param percentile
+     *            the percentile between 0 and 100.
+     * @return the render time in nanoseconds, 0 if no entity was rendered.
+     */
+    public synchronized long getEntityNanosPercentile(double percentile) {
+
+        long[] sorted;
+        int index;
+
+        if (entities == 0) {
+            return 0;
+        }
+        sorted = Arrays.copyOf(entityNanos, entities);
+        Arrays.sort(sorted);
+        index = (int) Math.ceil(percentile / 100 * entities) - 1;
+        return sorted[Math.max(0, Math.min(entities - 1, index))];
+    }
+
+    /**
+     * Summarizes the metrics.
+     *
+     * @return the metric names mapped to their values, sorted by name.
+     */
+    public synchronized Map<String, String> getSummary() {
+
+        Map<String, String> summary;
+        EntityTime[] slowestEntities;
+        Phase phase;
+
+        summary = new TreeMap<String, String>();
+        summary.put("run.nanos", String.valueOf(((endNanos != 0) ? endNanos
+                : System.nanoTime()) - startNanos));
+        for (int i = 0; i < Phase.values().length; ++i) {
+            phase = Phase.values()[i];
+            summary.put("phase." + phase.name().toLowerCase() + ".nanos",
+                    String.valueOf(phaseNanos.get(i)));
+            summary.put("phase." + phase.name().toLowerCase() + ".count",
+                    String.valueOf(phaseCounts.get(i)));
+        }
+        summary.put("entity.count", String.valueOf(entities));
+        summary.put("entity.p50.nanos",
+                String.valueOf(getEntityNanosPercentile(50)));
+        summary.put("entity.p99.nanos",
+                String.valueOf(getEntityNanosPercentile(99)));
+        summary.put("entity.max.nanos",
+                String.valueOf(getEntityNanosPercentile(100)));
+        slowestEntities = slowest.toArray(new EntityTime[slowest.size()]);
+        Arrays.sort(slowestEntities);
+        for (int i = 0; i < slowestEntities.length; ++i) {
+            summary.put(String.format("entity.slowest.%02d",
+                    slowestEntities.length - i), slowestEntities[i].name + " "
+                    + slowestEntities[i].nanos);
+        }
+        summary.put("files.written", String.valueOf(filesWritten.sum()));
+        summary.put("bytes.written", String.valueOf(bytesWritten.sum()));
+        summary.put("bytes.allocated", String.valueOf((ALLOCATION_BEAN != null)
+                ? allocatedBytes.sum() : -1));
+        return summary;
+    }
+
+    /**
+     * Writes the summary as a properties file, one metric per line sorted by
+     * name.
+     *
+     * @param file
+     *            the report file.
+     * @throws IOException
+     *             when the report can not be written.
+     */
+    public void writeReport(File file) throws IOException {
+
+        Writer writer;
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            writer.write("# toshookan generation metrics, times in nanoseconds\n");
+            for (Map.Entry<String, String> entry : getSummary().entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Commits a toshookan.Generation event.
+     *
+     * @param phase
+     *            the name of the phase.
+     * @param subject
+     *            the entity or file.
+     * @param nanos
+     *            the duration of the step in nanoseconds.
+     * @param bytes
+     *            the number of bytes written.
+     */
+    private static void commitEvent(String phase, String subject, long nanos,
+            long bytes) {
+        try {
+            COMMIT_EVENT.invokeExact(phase, subject, nanos, bytes);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up the method committing the JFR event.
+     *
+     * @return the method, null if the event class is not on the class path or
+     *         the JVM does not provide JFR.
+     */
+    private static MethodHandle findCommitEvent() {
+        try {
+            Class<?> eventClass = Class.forName(
+                    "toshookan.domainmodel.GenerationEvent", true,
+                    GenerationMetrics.class.getClassLoader());
+            return MethodHandles.lookup().findStatic(
+                    eventClass,
+                    "commit",
+                    MethodType.methodType(void.class, String.class,
+                            String.class, long.class, long.class));
+        }
+        catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the thread bean if it can measure the allocated memory.
+     *
+     * @return the thread bean, null if not supported.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+
+        ThreadMXBean bean;
+
+        try {
+            bean = ManagementFactory.getThreadMXBean();
+            if ((bean instanceof com.sun.management.ThreadMXBean)
+                    && ((com.sun.management.ThreadMXBean) bean)
+                            .isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) bean)
+                            .isThreadAllocatedMemoryEnabled()) {
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        }
+        catch (Throwable e) {
+            // not a HotSpot compatible JVM
+        }
+        return null;
+    }
+
+    /**
+     * The render time of an entity, ordered by time.
+     */
+    private static final class EntityTime implements Comparable<EntityTime> {
+
+        final String name;
+        final long nanos;
+
+        EntityTime(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        public int compareTo(EntityTime other) {
+            return (nanos < other.nanos) ? -1 : ((nanos == other.nanos) ? 0
+                    : 1);
+        }
+    }
+}
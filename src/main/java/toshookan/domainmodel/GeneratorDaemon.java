@@ -0,0 +1,200 @@
+package toshookan.domainmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a generator resident and regenerates whenever the model or a template
+ * changes.
+ * <p>
+ * The JVM, Velocity and the parsed templates stay warm between runs. The
+ * generator runs in incremental mode: the model XML is still parsed again on
+ * every model change, but an entity whose definition and templates are
+ * unchanged is skipped before its context is built, only the entities that
+ * changed are rendered. After a template change only the files of that
+ * template are rendered, the context of every entity using it is built
+ * again. Changed templates are reloaded, a model that can not be parsed is
+ * reported and the previous model is kept.
+ * <p>
+ * Editors often produce several events for one save, events that arrive
+ * within a short quiet period are handled by a single run.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class GeneratorDaemon {
+
+	private static final String CLASSNAME = GeneratorDaemon.class.getName();
+
+	private static final Logger LOGGER = Logger.getLogger(CLASSNAME);
+
+	/*
+	 * The time without further events after which the changes are generated.
+	 */
+	private static final long QUIET_PERIOD_MILLIS = 50;
+
+	private final VelocityDomainModelCodeGenerator generator;
+	private final Path domainModelXmlFile;
+	private final Path templateRoot;
+	private volatile WatchService watchService;
+	private volatile boolean stopped;
+	private DomainModel domainModel;
+
+	/**
+	 * Constructor for class GeneratorDaemon.
+	 * 
+	 * @param generator
+	 *            the generator to keep resident, it is switched to incremental
+	 *            mode.
+	 * @param domainModelXmlFile
+	 *            the XML file describing the model.
+	 */
+	public GeneratorDaemon(VelocityDomainModelCodeGenerator generator,
+			File domainModelXmlFile) {
+
+		this.generator = generator;
+		this.domainModelXmlFile = domainModelXmlFile.toPath().toAbsolutePath()
+				.normalize();
+		this.templateRoot = new File(generator.getTemplateRoot()).toPath()
+				.toAbsolutePath().normalize();
+		generator.setIncremental(true);
+	}
+
+	/**
+	 * Generates the model and then watches the model and the templates,
+	 * regenerating on every change until stopped.
+	 * 
+	 * @throws IOException
+	 *             when the directories can not be watched.
+	 * @throws InterruptedException
+	 *             when the thread is interrupted while waiting for changes.
+	 */
+	public void run() throws IOException, InterruptedException {
+
+		WatchKey key;
+		boolean modelChanged;
+		boolean templatesChanged;
+
+		watchService = FileSystems.getDefault().newWatchService();
+		try {
+			register(domainModelXmlFile.getParent());
+			if (!templateRoot.equals(domainModelXmlFile.getParent())) {
+				register(templateRoot);
+			}
+			generate(true, false);
+
+			while (!stopped) {
+				key = watchService.take();
+				modelChanged = false;
+				templatesChanged = false;
+				do {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							modelChanged = true;
+							templatesChanged = true;
+							continue;
+						}
+						Path file = ((Path) key.watchable())
+								.resolve((Path) event.context());
+						if (file.equals(domainModelXmlFile)) {
+							modelChanged = true;
+						} else if (file.getParent().equals(templateRoot)
+								&& file.getFileName().toString().endsWith(".vm")) {
+							templatesChanged = true;
+						}
+					}
+					key.reset();
+					key = watchService.poll(QUIET_PERIOD_MILLIS,
+							TimeUnit.MILLISECONDS);
+				} while (key != null);
+
+				if (modelChanged || templatesChanged) {
+					generate(modelChanged, templatesChanged);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		} finally {
+			watchService.close();
+		}
+	}
+
+	/**
+	 * Stops watching, a run in progress is completed first.
+	 * 
+	 * @throws IOException
+	 *             when the watch service can not be closed.
+	 */
+	public void stop() throws IOException {
+		stopped = true;
+		if (watchService != null) {
+			watchService.close();
+		}
+	}
+
+	/**
+	 * Watches a directory for changes.
+	 * 
+	 * @param dir
+	 *            the directory to watch.
+	 * @throws IOException
+	 *             when the directory can not be watched.
+	 */
+	private void register(Path dir) throws IOException {
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+	}
+
+	/**
+	 * Reloads what changed and runs the generator. Failures are logged so the
+	 * daemon keeps running.
+	 * 
+	 * @param modelChanged
+	 *            true if the model has to be parsed again.
+	 * @param templatesChanged
+	 *            true if the templates have to be parsed again.
+	 */
+	void generate(boolean modelChanged, boolean templatesChanged) {
+
+		DomainModelHandler handler;
+		long start;
+
+		start = System.nanoTime();
+		if (modelChanged) {
+			try {
+				handler = new DomainModelHandler();
+				handler.parse(domainModelXmlFile.toFile());
+				domainModel = handler.getDomainModel();
+			} catch (Exception e) {
+				LOGGER.log(Level.SEVERE, "Unable to parse "
+						+ domainModelXmlFile + ", keeping the previous model", e);
+				if (domainModel == null) {
+					return;
+				}
+			}
+		}
+		if (templatesChanged) {
+			generator.clearTemplates();
+		}
+
+		try {
+			generator.setDomainModel(domainModel);
+			generator.execute();
+			LOGGER.info("Generated in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+					+ " ms");
+		} catch (Exception e) {
+			LOGGER.log(Level.SEVERE, "Generation failed", e);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package toshookan.domainmodel;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the generated files in memory.
+ * <p>
+ * Useful when the generated files are processed further in the same JVM, for
+ * example compiled with a GeneratedSourceCompiler, without writing them to
+ * disk and reading them back. Writing a file that already exists replaces it.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class MemoryOutputSink implements OutputSink {
+
+    private final SortedMap<String, byte[]> files = new ConcurrentSkipListMap<String, byte[]>();
+
+    /**
+     * Keeps the file.
+     *
+     * @param fileName
+     * @param content
+     * @see toshookan.domainmodel.OutputSink#write(java.lang.String, byte[])
+     */
+    public void write(String fileName, byte[] content) {
+        files.put(fileName, content);
+    }
+
+    /**
+     * Returns the content of a file.
+     *
+     * @param fileName
+     *            the file name relative to the output root.
+     * @return the content of the file, null if it has not been generated.
+     */
+    public byte[] get(String fileName) {
+        return files.get(fileName);
+    }
+
+    /**
+     * Returns the generated files.
+     *
+     * @return an unmodifiable view of the file names, sorted, mapped to their
+     *         content.
+     */
+    public Map<String, byte[]> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Discards the generated files.
+     */
+    public void clear() {
+        files.clear();
+    }
+}
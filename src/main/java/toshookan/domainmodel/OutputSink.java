@@ -0,0 +1,28 @@
+package toshookan.domainmodel;
+
+import java.io.IOException;
+
+/**
+ * Destination of the generated files.
+ * <p>
+ * The generator renders each file into memory and hands the complete content
+ * to the sink, which decides how and whether it is stored. Implementations
+ * must be safe to use from several worker threads.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public interface OutputSink {
+
+    /**
+     * Stores a generated file.
+     *
+     * @param fileName
+     *            the file name relative to the output root, using '/' as the
+     *            separator.
+     * @param content
+     *            the encoded content of the file.
+     * @throws IOException
+     *             when the file can not be stored.
+     */
+    public void write(String fileName, byte[] content) throws IOException;
+}
@@ -1,5 +1,8 @@
 package toshookan.domainmodel;
 
+import java.io.IOException;
+import java.util.Collection;
+
 /**
  * Utility class which contains static methods that should be part of the String
  * class but are not due to the version of Java, etc...
@@ -12,6 +15,10 @@ package toshookan.domainmodel;
  * Note that the replace, match, and split methods are supported by the String
  * object since 1.4 and format since 1.5 and are therefore similar functionality
  * has not been included in this class.
+ * <p>
+ * Most methods have a variant that reads a CharSequence and appends its result
+ * to a caller supplied Appendable, so a caller building a larger string does
+ * not allocate intermediate Strings.
  * 
  * @version $Revision: 1.2 $
  * @author $Author: jknowles $
@@ -24,6 +31,63 @@ public class StringUtil {
 	public static final String SPECIAL_CHARACTERS = 
 		",&!#$%*()+:;<=>?[]`{|}^_\\\'";
 
+	/**
+	 * A set of characters that is tested with a single bit lookup.
+	 * <p>
+	 * Create a CharClass once for characters that are searched for repeatedly,
+	 * {@link StringUtil#indexOfAny(CharSequence, CharClass, int)} then tests
+	 * each character in constant time instead of scanning the characters
+	 * searched for.
+	 */
+	public static final class CharClass {
+
+		private final long[] bits;
+
+		/**
+		 * Constructor for class CharClass.
+		 *
+		 * @param chars
+		 *            the characters in the class.
+		 */
+		private CharClass(CharSequence chars) {
+
+			char max = 0;
+
+			for (int i = 0; i < chars.length(); ++i) {
+				if (chars.charAt(i) > max) {
+					max = chars.charAt(i);
+				}
+			}
+			bits = new long[(max >> 6) + 1];
+			for (int i = 0; i < chars.length(); ++i) {
+				bits[chars.charAt(i) >> 6] |= 1L << chars.charAt(i);
+			}
+		}
+
+		/**
+		 * Creates the class of the passed characters.
+		 *
+		 * @param chars
+		 *            the characters in the class.
+		 * @return the character class.
+		 */
+		public static CharClass of(CharSequence chars) {
+			return new CharClass(chars);
+		}
+
+		/**
+		 * Determines if the character is in this class.
+		 *
+		 * @param c
+		 *            the character to test.
+		 * @return true if the character is in this class.
+		 */
+		public boolean contains(char c) {
+			int word = c >> 6;
+			return (word < bits.length) && ((bits[word] & (1L << c)) != 0);
+		}
+	}
+
 	/**
 	 * Returns the index within this string of the first occurrence of any of
 	 * the characters specified in string any. If none of the characters occur
@@ -56,21 +120,43 @@ public class StringUtil {
 	 */
 	public static int indexOfAny(String string, String any, int start) {
 		
-		if((string == null) || (any == null)) {
+		if((string == null) || (any == null) || (start < 0)) {
 			return -1;
 		}
-		try {
-			int len = string.length();
-			for (int i = start; i < len; i++) {
-				if (any.indexOf(string.charAt(i)) >= 0) {
-					return i;
-				}
+		int len = string.length();
+		for (int i = start; i < len; i++) {
+			if (any.indexOf(string.charAt(i)) >= 0) {
+				return i;
 			}
-			return -1;
 		}
-		catch (StringIndexOutOfBoundsException e) {
+		return -1;
+	}
+
+	/**
+	 * Returns the index within the sequence of the first occurrence of any of
+	 * the characters in the class at or after the character at index start.
+	 *
+	 * @param chars
+	 *            the sequence to search
+	 * @param any
+	 *            the characters to search for
+	 * @param start
+	 *            the index to start the search at
+	 * @return the first index of any of the characters of the class, or -1 if
+	 *         none are found.
+	 */
+	public static int indexOfAny(CharSequence chars, CharClass any, int start) {
+
+		if ((chars == null) || (any == null) || (start < 0)) {
 			return -1;
 		}
+		int len = chars.length();
+		for (int i = start; i < len; i++) {
+			if (any.contains(chars.charAt(i))) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	/**
@@ -101,13 +187,24 @@ public class StringUtil {
 	/**
 	 * Determines is the passed string is not null and not empty and contains
 	 * characters other than all whitespace.
+	 * <p>
+	 * Whitespace is what String.trim() removes, the string is not copied.
 	 * 
 	 * @param string
 	 *            The string to check.
 	 * @return true is the string is set otherwise false.
 	 */
-	public static boolean isSet(String string) {
-		return ((string != null) && (string.trim().length() > 0));
+	public static boolean isSet(CharSequence string) {
+
+		if (string == null) {
+			return false;
+		}
+		for (int i = 0; i < string.length(); ++i) {
+			if (string.charAt(i) > ' ') {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -124,17 +221,13 @@ public class StringUtil {
 		if ((string == null) || (length < 1)) {
 			return new String[0];
 		}
-		int l = (int) Math.ceil((double) string.length() / (double) length);
+		int l = (string.length() / length)
+				+ ((string.length() % length == 0) ? 0 : 1);
 		String[] result = new String[l];
 
 		for (int i = 0; i < l; ++i) {
-			try {
-				result[i] = string.substring((i * length),
-						((i * length) + length));
-			}
-			catch (StringIndexOutOfBoundsException e) {
-				result[i] = string.substring(i * length);
-			}
+			result[i] = string.substring(i * length,
+					Math.min((i * length) + length, string.length()));
 		}
 
 		return result;
@@ -153,21 +246,53 @@ public class StringUtil {
 	 */
 	public static String join(String[] strings, String delim) {
 
-		StringBuffer sb = new StringBuffer();
-
 		if ((strings == null) || (strings.length == 0)) {
 			return "";
 		}
+		if (strings.length == 1) {
+			return String.valueOf(strings[0]);
+		}
 
-		String d = (delim == null) ? "" : delim;
+		StringBuilder sb = new StringBuilder();
+		try {
+			join(sb, strings, delim);
+		}
+		catch (IOException e) {
+			// a StringBuilder does not throw
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
 
-		sb.append(strings[0]);
+	/**
+	 * Appends the sequences contained in strings separated by the delimiter
+	 * delim. There is no leading or trailing delimiter. Nothing is appended if
+	 * strings is null or empty.
+	 *
+	 * @param out
+	 *            the destination.
+	 * @param strings
+	 *            the sequences to join together
+	 * @param delim
+	 *            the sequence to use as a separator between joined sequences.
+	 * @return out
+	 * @throws IOException
+	 *             when out can not be appended to.
+	 */
+	public static <T extends Appendable> T join(T out, CharSequence[] strings,
+			CharSequence delim) throws IOException {
+
+		if ((strings == null) || (strings.length == 0)) {
+			return out;
+		}
+		out.append(strings[0]);
 		for (int i = 1; i < strings.length; ++i) {
-			sb.append(d);
-			sb.append(strings[i]);
+			if (delim != null) {
+				out.append(delim);
+			}
+			out.append(strings[i]);
 		}
-
-		return sb.toString();
+		return out;
 	}
 
 	/**
@@ -188,24 +313,55 @@ public class StringUtil {
 	 * @return the padded string.
 	 */
 	public static String pad(String string, char aChar, int length) {
-		StringBuffer sb = new StringBuffer();
 
-		if (string.length() == length) {
+		if (string.length() >= Math.abs(length)) {
 			return string;
 		}
 
-		for (int i = 0; (i < (Math.abs(length) - string.length())); ++i) {
-			sb.append(aChar);
+		StringBuilder sb = new StringBuilder(Math.abs(length));
+		try {
+			pad(sb, string, aChar, length);
+		}
+		catch (IOException e) {
+			// a StringBuilder does not throw
+			throw new IllegalStateException(e);
 		}
+		return sb.toString();
+	}
 
-		if (length >= 0) {
-			sb.append(string);
+	/**
+	 * Appends the sequence padded with characters "aChar" so that it is
+	 * "length" characters long. If length is positive the front of the
+	 * sequence is padded. If length is negative the end of the sequence is
+	 * padded.
+	 *
+	 * @param out
+	 *            the destination.
+	 * @param string
+	 *            the sequence to pad.
+	 * @param aChar
+	 *            the character to use as padding.
+	 * @param length
+	 *            The length of the appended characters.
+	 * @return out
+	 * @throws IOException
+	 *             when out can not be appended to.
+	 */
+	public static <T extends Appendable> T pad(T out, CharSequence string,
+			char aChar, int length) throws IOException {
+
+		int padding = Math.abs(length) - string.length();
+
+		if (length < 0) {
+			out.append(string);
 		}
-		else {
-			sb.insert(0, string);
+		for (int i = 0; i < padding; ++i) {
+			out.append(aChar);
 		}
-
-		return sb.toString();
+		if (length >= 0) {
+			out.append(string);
+		}
+		return out;
 	}
 
 	/**
@@ -236,6 +392,39 @@ public class StringUtil {
 		return string.substring(0, length);
 	}
 
+	/**
+	 * Appends the sequence truncated so it is at most length characters long.
+	 * If a negative length is specified the characters are removed from the
+	 * left side of the sequence.
+	 *
+	 * @param out
+	 *            the destination.
+	 * @param string
+	 *            the sequence to truncate
+	 * @param length
+	 *            The maximum number of characters appended
+	 * @return out
+	 * @throws IOException
+	 *             when out can not be appended to.
+	 */
+	public static <T extends Appendable> T trunc(T out, CharSequence string,
+			int length) throws IOException {
+
+		int absLength = Math.abs(length);
+		int sLength = string.length();
+
+		if (sLength <= absLength) {
+			out.append(string);
+		}
+		else if (length < 0) {
+			out.append(string, sLength - absLength, sLength);
+		}
+		else {
+			out.append(string, 0, length);
+		}
+		return out;
+	}
+
 	/**
 	 * Removes all extra whitespace characters from the passed String. All
 	 * occurrences of consecutive white space characters as defined by
@@ -278,4 +467,106 @@ public class StringUtil {
 
 		return new String(newString, 0, newLength);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Appends the sequence with all occurrences of consecutive white space
+	 * characters reduced down to the first character of the run, see
+	 * {@link #squeeze(String)}. Runs of other characters are appended as a
+	 * whole.
+	 *
+	 * @param out
+	 *            the destination.
+	 * @param string
+	 *            the sequence to squeeze.
+	 * @return out
+	 * @throws IOException
+	 *             when out can not be appended to.
+	 */
+	public static <T extends Appendable> T squeeze(T out, CharSequence string)
+			throws IOException {
+
+		int start = 0;
+		boolean consecutive = false;
+
+		for (int i = 0; i < string.length(); ++i) {
+			if (Character.isWhitespace(string.charAt(i))) {
+				if (consecutive) {
+					if (start < i) {
+						out.append(string, start, i);
+					}
+					start = i + 1;
+				}
+				consecutive = true;
+			}
+			else {
+				consecutive = false;
+			}
+		}
+		out.append(string, start, string.length());
+		return out;
+	}
+
+	/**
+	 * Breaks the text into lines shorter than the width, adding each line to
+	 * the collection.
+	 * <p>
+	 * Every whitespace character ends a word and is replaced by a single space
+	 * at the end of the word. A line is broken before the word that would make
+	 * it width characters or longer. A newline '\n' forces a break, it is
+	 * followed by the paragraph line. The line is built in a single buffer
+	 * and the words are copied straight from the text, only the lines
+	 * themselves are allocated.
+	 *
+	 * @param text
+	 *            the text to break into lines.
+	 * @param width
+	 *            the line width.
+	 * @param paragraph
+	 *            the line added after a forced break.
+	 * @param lines
+	 *            receives the lines.
+	 * @return lines
+	 */
+	public static <T extends Collection<? super String>> T wrap(
+			CharSequence text, int width, String paragraph, T lines) {
+
+		StringBuilder line = new StringBuilder(width + 16);
+		int length = text.length();
+		int wordStart = 0;
+		char c;
+
+		for (int i = 0; i < length; ++i) {
+			c = text.charAt(i);
+			if (!Character.isWhitespace(c)) {
+				continue;
+			}
+			if (c == '\n') {
+				// forced new line
+				line.append(text, wordStart, i);
+				lines.add(line.toString());
+				lines.add(paragraph);
+				line.setLength(0);
+			}
+			else if (line.length() + (i - wordStart) < width) {
+				line.append(text, wordStart, i).append(' ');
+			}
+			else {
+				// auto new line, the word starts the next line
+				lines.add(line.toString());
+				line.setLength(0);
+				line.append(text, wordStart, i).append(' ');
+			}
+			wordStart = i + 1;
+		}
+		// flush all remaining characters
+		if (line.length() + (length - wordStart) < width) {
+			line.append(text, wordStart, length);
+			lines.add(line.toString());
+		}
+		else {
+			lines.add(line.toString());
+			lines.add(text.subSequence(wordStart, length).toString());
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,464 @@
+package toshookan.domainmodel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parsed form of a type as written in the model, e.g.
+ * <code>java.util.Map&lt;String, java.util.List&lt;Long&gt;&gt;[]</code>.
+ * <p>
+ * Types are parsed once and cached, a model uses a small number of distinct
+ * types for all of its values. The descriptors are immutable and shared by
+ * all of the generator threads.
+ * <p>
+ * The parser understands qualified names, nested type arguments, wildcards
+ * with bounds and array dimensions:
+ *
+ * <pre>
+ * type      := ( '?' [ ( 'extends' | 'super' ) type ] | name [ '&lt;' type { ',' type } '&gt;' ] ) { '[' ']' }
+ * name      := identifier { '.' identifier }
+ * </pre>
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+final class TypeDescriptor {
+
+	private static final Set<String> PRIMITIVES = new HashSet<String>(
+			Arrays.asList("boolean", "byte", "char", "short", "int", "long",
+					"float", "double"));
+
+	private static final Map<String, String> TEST_DATA = new HashMap<String, String>();
+	static {
+		TEST_DATA.put("byte", "(byte) 1");
+		TEST_DATA.put("Byte", "Byte.valueOf((byte) 1)");
+		TEST_DATA.put("short", "(short) 1");
+		TEST_DATA.put("Short", "Short.valueOf((short) 1)");
+		TEST_DATA.put("char", "'a'");
+		TEST_DATA.put("Character", "'a'");
+		TEST_DATA.put("int", "1");
+		TEST_DATA.put("Integer", "1");
+		TEST_DATA.put("long", "1l");
+		TEST_DATA.put("Long", "1l");
+		TEST_DATA.put("float", "1f");
+		TEST_DATA.put("Float", "1f");
+		TEST_DATA.put("double", "1d");
+		TEST_DATA.put("Double", "1d");
+		TEST_DATA.put("boolean", "true");
+		TEST_DATA.put("Boolean", "true");
+		TEST_DATA.put("String", "\"\"");
+	}
+
+	/*
+	 * The date classes whose values are cloned by the immutable value
+	 * classes, as written in the model.
+	 */
+	private static final Set<String> MUTABLE_CLASSES = new HashSet<String>(
+			Arrays.asList("Date", "java.util.Date", "java.sql.Date",
+					"java.sql.Time", "java.sql.Timestamp"));
+
+	/*
+	 * The collection interfaces whose values are copied into unmodifiable
+	 * collections by the immutable value classes, by their raw name as
+	 * written in the model. Each maps to the Collections method wrapping the
+	 * copy and the class of the copy. A Collection is copied into a list, so
+	 * the copies compare by their elements.
+	 */
+	private static final Map<String, String[]> COLLECTION_COPIES = new HashMap<String, String[]>();
+	static {
+		String[][] copies = {
+				{ "Collection", "unmodifiableList", "java.util.ArrayList" },
+				{ "List", "unmodifiableList", "java.util.ArrayList" },
+				{ "Set", "unmodifiableSet", "java.util.LinkedHashSet" },
+				{ "SortedSet", "unmodifiableSortedSet", "java.util.TreeSet" },
+				{ "NavigableSet", "unmodifiableNavigableSet",
+						"java.util.TreeSet" },
+				{ "Map", "unmodifiableMap", "java.util.LinkedHashMap" },
+				{ "SortedMap", "unmodifiableSortedMap", "java.util.TreeMap" },
+				{ "NavigableMap", "unmodifiableNavigableMap",
+						"java.util.TreeMap" } };
+		for (String[] copy : copies) {
+			String[] wrapper = { "java.util.Collections." + copy[1], copy[2] };
+			COLLECTION_COPIES.put(copy[0], wrapper);
+			COLLECTION_COPIES.put("java.util." + copy[0], wrapper);
+		}
+	}
+
+	private static final Map<String, TypeDescriptor> CACHE = new ConcurrentHashMap<String, TypeDescriptor>();
+
+	/*
+	 * The descriptor of a type that is not set.
+	 */
+	private static final TypeDescriptor UNSET = new TypeDescriptor(null);
+
+	private final String name;
+	private final String simpleName;
+	private final String rawName;
+	private final List<String> imports;
+	private final boolean primitive;
+	private final boolean array;
+	private final boolean mutable;
+	private final String[] collectionCopy;
+	private final String testValue;
+
+	/**
+	 * Returns the descriptor of a type.
+	 *
+	 * @param name
+	 *            the type as written in the model, may be null.
+	 * @return the descriptor, never null.
+	 * @throws IllegalArgumentException
+	 *             when the type is not well formed.
+	 */
+	static TypeDescriptor forName(String name) {
+
+		TypeDescriptor descriptor;
+
+		if (!StringUtil.isSet(name)) {
+			return UNSET;
+		}
+		descriptor = CACHE.get(name);
+		if (descriptor == null) {
+			descriptor = new TypeDescriptor(name);
+			CACHE.put(name, descriptor);
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Constructor for class TypeDescriptor.
+	 *
+	 * @param name
+	 *            the type as written in the model, null if not set.
+	 */
+	private TypeDescriptor(String name) {
+
+		Parser parser;
+		String testData;
+
+		this.name = name;
+		testData = TEST_DATA.get(name);
+		this.testValue = (testData != null) ? testData : "null";
+		this.primitive = PRIMITIVES.contains(name);
+		if (name == null) {
+			this.simpleName = null;
+			this.rawName = null;
+			this.imports = Collections.emptyList();
+			this.array = false;
+			this.mutable = false;
+			this.collectionCopy = null;
+		} else {
+			parser = new Parser(name);
+			parser.parse();
+			this.simpleName = parser.simpleName.toString().trim();
+			this.rawName = parser.rawName;
+			this.imports = Collections.unmodifiableList(Arrays
+					.asList(parser.imports.toArray(new String[parser.imports
+							.size()])));
+			this.array = parser.arrayDimensions > 0;
+			this.collectionCopy = array ? null : COLLECTION_COPIES
+					.get(rawName);
+			this.mutable = array || (collectionCopy != null)
+					|| MUTABLE_CLASSES.contains(name.trim());
+		}
+	}
+
+	/**
+	 * Getter method for name.
+	 *
+	 * @return the type as written in the model, null if not set.
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the type with the package removed from every class name, the
+	 * type arguments and spacing are kept as written.
+	 *
+	 * @return the simple name, null if the type is not set.
+	 */
+	String getSimpleName() {
+		return simpleName;
+	}
+
+	/**
+	 * Returns the class name of the type as written, without its type
+	 * arguments and array dimensions.
+	 *
+	 * @return the raw name, null if the type is not set.
+	 */
+	String getRawName() {
+		return rawName;
+	}
+
+	/**
+	 * Returns the qualified class names used by the type, including those of
+	 * the type arguments, in the order they are written.
+	 *
+	 * @return the class names to import.
+	 */
+	List<String> getImports() {
+		return imports;
+	}
+
+	/**
+	 * Determines if the type is a primitive type.
+	 *
+	 * @return true for the primitive types.
+	 */
+	boolean isPrimitive() {
+		return primitive;
+	}
+
+	/**
+	 * Determines if a value of the type can be modified after it has been
+	 * set, so an immutable class must copy it.
+	 * <p>
+	 * Only arrays, the java.util and java.sql date classes and the collection
+	 * interfaces of java.util are recognized. Other mutable classes, including
+	 * collection implementations such as java.util.ArrayList, are not.
+	 *
+	 * @return true for arrays, dates and the collection interfaces.
+	 */
+	boolean isMutable() {
+		return mutable;
+	}
+
+	/**
+	 * Returns the Collections method that wraps a copy of a value of the
+	 * type, e.g. java.util.Collections.unmodifiableList.
+	 *
+	 * @return the qualified method name, null if the type is not one of the
+	 *         collection interfaces List, Set, SortedSet, NavigableSet, Map,
+	 *         SortedMap, NavigableMap or Collection of java.util.
+	 */
+	String getUnmodifiableView() {
+		return (collectionCopy == null) ? null : collectionCopy[0];
+	}
+
+	/**
+	 * Returns the class a value of the type is copied into before it is
+	 * wrapped, e.g. java.util.ArrayList for a List.
+	 * <p>
+	 * Sets and maps are copied into the insertion ordered LinkedHashSet and
+	 * LinkedHashMap, sorted sets and maps into a TreeSet and TreeMap with the
+	 * same comparator.
+	 *
+	 * @return the qualified class name, null if the type is not a collection
+	 *         interface.
+	 */
+	String getCopyClass() {
+		return (collectionCopy == null) ? null : collectionCopy[1];
+	}
+
+	/**
+	 * Classifies the type for the templates.
+	 * <p>
+	 * Primitive types are classified by their name, arrays as "array" and all
+	 * other types as "object".
+	 *
+	 * @return the kind of the type.
+	 */
+	String getKind() {
+		if (primitive) {
+			return name;
+		}
+		return array ? "array" : "object";
+	}
+
+	/**
+	 * Returns a literal value that is assignable to the type.
+	 *
+	 * @return the Java expression of the value, "null" if the type has no
+	 *         sample value.
+	 */
+	String getTestValue() {
+		return testValue;
+	}
+
+	/**
+	 * Returns a string that "textually represents" this object.
+	 *
+	 * @return A String representation of this instance.
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "[" + "[name=" + name + "]" + "[imports=" + imports + "]" + "]";
+	}
+
+	/**
+	 * A recursive descent parser for a single type, collecting the simple
+	 * name and the imports in one pass.
+	 */
+	private static final class Parser {
+
+		private final String type;
+		private int position;
+		private int arrayDimensions;
+		private final StringBuilder simpleName;
+		private final Set<String> imports;
+		private String rawName;
+
+		/**
+		 * Constructor for class Parser.
+		 *
+		 * @param type
+		 *            the type to parse.
+		 */
+		Parser(String type) {
+			this.type = type;
+			this.simpleName = new StringBuilder(type.length());
+			this.imports = new LinkedHashSet<String>();
+		}
+
+		/**
+		 * Parses the whole type.
+		 *
+		 * @throws IllegalArgumentException
+		 *             when the type is not well formed.
+		 */
+		void parse() {
+			arrayDimensions = parseType();
+			if (position < type.length()) {
+				throw error("unexpected '" + type.charAt(position) + "'");
+			}
+		}
+
+		/**
+		 * Parses a type, a type argument or a wildcard.
+		 *
+		 * @return the number of array dimensions of the type.
+		 */
+		private int parseType() {
+
+			int dimensions = 0;
+
+			skipWhitespace();
+			if (peek() == '?') {
+				copy();
+				skipWhitespace();
+				if (type.startsWith("extends", position)
+						|| type.startsWith("super", position)) {
+					parseName(false);
+					parseType();
+				}
+			} else {
+				parseName(true);
+				skipWhitespace();
+				if (peek() == '<') {
+					copy();
+					parseType();
+					skipWhitespace();
+					while (peek() == ',') {
+						copy();
+						parseType();
+						skipWhitespace();
+					}
+					expect('>');
+				}
+			}
+			skipWhitespace();
+			while (peek() == '[') {
+				copy();
+				skipWhitespace();
+				expect(']');
+				skipWhitespace();
+				++dimensions;
+			}
+			return dimensions;
+		}
+
+		/**
+		 * Parses a possibly qualified name and appends its last segment to
+		 * the simple name.
+		 *
+		 * @param importable
+		 *            true if a qualified name is imported.
+		 */
+		private void parseName(boolean importable) {
+
+			int start = position;
+			int segment = position;
+
+			while (position < type.length()) {
+				char c = type.charAt(position);
+				if (c == '.') {
+					segment = position + 1;
+				} else if (!Character.isJavaIdentifierPart(c)) {
+					break;
+				}
+				++position;
+			}
+			if ((position == segment) || (position == start)
+					|| !Character.isJavaIdentifierStart(type.charAt(segment))) {
+				throw error("expected a class name");
+			}
+			simpleName.append(type, segment, position);
+			if (importable && (rawName == null)) {
+				rawName = type.substring(start, position);
+			}
+			if (importable && (segment > start)) {
+				imports.add(type.substring(start, position));
+			}
+		}
+
+		/**
+		 * Consumes the expected character.
+		 *
+		 * @param expected
+		 *            the character that must follow.
+		 */
+		private void expect(char expected) {
+			if (peek() != expected) {
+				throw error("expected '" + expected + "'");
+			}
+			copy();
+		}
+
+		/**
+		 * Copies the current character to the simple name.
+		 */
+		private void copy() {
+			simpleName.append(type.charAt(position++));
+		}
+
+		/**
+		 * Copies the whitespace at the current position to the simple name.
+		 */
+		private void skipWhitespace() {
+			while ((position < type.length())
+					&& Character.isWhitespace(type.charAt(position))) {
+				copy();
+			}
+		}
+
+		/**
+		 * Returns the current character.
+		 *
+		 * @return the current character, 0 at the end of the type.
+		 */
+		private char peek() {
+			return (position < type.length()) ? type.charAt(position) : 0;
+		}
+
+		/**
+		 * Creates the exception describing a parse error at the current
+		 * position.
+		 *
+		 * @param message
+		 *            what was wrong.
+		 * @return the exception to throw.
+		 */
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("Invalid type \"" + type
+					+ "\" at " + position + ": " + message);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package toshookan.domainmodel;
+
+import java.util.List;
+
+/**
+ * The view of a Value that the templates see as an entry of entityValues.
+ * <p>
+ * The view is created once per entity and shared by all of the templates
+ * generated for it. Velocity resolves a reference to a typed getter once per
+ * template node and then calls it directly, where a map entry is looked up by
+ * name on every reference. The type derived fields come from the shared
+ * {@link TypeDescriptor}, the other fields that only some templates use are
+ * computed on first use.
+ * <p>
+ * The view is immutable. The lazily computed fields always have the same
+ * value, so computing them twice on concurrent first use is harmless.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public final class ValueView {
+
+    private final Value value;
+    private final TypeDescriptor type;
+    private final String codec;
+    private final String columnType;
+    private final boolean nullable;
+    private final String getter;
+    private final String setter;
+    private final String name;
+    private final Integer offset;
+
+    private String bufferType;
+    private String constantName;
+    private List<String> description;
+
+    /**
+     * Constructor for class ValueView.
+     *
+     * @param value
+     *            the value to view.
+     * @param offset
+     *            the offset of the value within the record of a flyweight,
+     *            null if the entity has no flyweight.
+     */
+    ValueView(Value value, Integer offset) {
+
+        String className = value.getClassName();
+
+        this.value = value;
+        this.type = TypeDescriptor.forName(className);
+        this.codec = VelocityDomainModelCodeGenerator.getCodec(className);
+        this.nullable = !type.isPrimitive();
+        this.columnType = nullable ? "Object" : className;
+        if (className != null) {
+            this.getter = ((className.equals("boolean") || className
+                    .equals("Boolean")) ? "is" : "get")
+                    + VelocityDomainModelCodeGenerator
+                            .capitalize(value.getName());
+        }
+        else {
+            this.getter = null;
+        }
+        this.setter = "set"
+                + VelocityDomainModelCodeGenerator.capitalize(value.getName());
+        this.name = VelocityDomainModelCodeGenerator.capitalize(value
+                .getName());
+        this.offset = offset;
+    }
+
+    /**
+     * Getter method for className.
+     *
+     * @return the class name without its package.
+     */
+    public String getClassName() {
+        return type.getSimpleName();
+    }
+
+    /**
+     * Getter method for testValue.
+     *
+     * @return the Java expression of a sample value, "null" if the type has no
+     *         sample value.
+     */
+    public String getTestValue() {
+        return type.getTestValue();
+    }
+
+    /**
+     * Getter method for kind.
+     *
+     * @return the kind of the type used to choose the generated code.
+     */
+    public String getKind() {
+        return type.getKind();
+    }
+
+    /**
+     * Getter method for codec.
+     *
+     * @return the name of the binary encoding of the type, null if the type
+     *         can not be encoded.
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Getter method for columnType.
+     *
+     * @return the element type of the column holding the value.
+     */
+    public String getColumnType() {
+        return columnType;
+    }
+
+    /**
+     * Getter method for nullable.
+     *
+     * @return true if the type is not a primitive.
+     */
+    public boolean getNullable() {
+        return nullable;
+    }
+
+    /**
+     * Getter method for mutable.
+     *
+     * @return true if the value is an array, a date or a collection that an
+     *         immutable class must copy.
+     */
+    public boolean getMutable() {
+        return type.isMutable();
+    }
+
+    /**
+     * Getter method for unmodifiableView.
+     *
+     * @return the Collections method wrapping the copy of a collection, null
+     *         if the value is not a collection.
+     */
+    public String getUnmodifiableView() {
+        return type.getUnmodifiableView();
+    }
+
+    /**
+     * Getter method for copyClass.
+     *
+     * @return the class a collection is copied into, null if the value is not
+     *         a collection.
+     */
+    public String getCopyClass() {
+        return type.getCopyClass();
+    }
+
+    /**
+     * Getter method for bufferType.
+     *
+     * @return the type as used in the names of the ByteBuffer methods.
+     */
+    public String getBufferType() {
+        if (bufferType == null) {
+            bufferType = VelocityDomainModelCodeGenerator.capitalize(value
+                    .getClassName());
+        }
+        return bufferType;
+    }
+
+    /**
+     * Getter method for constantName.
+     *
+     * @return the name in upper case with underscores.
+     */
+    public String getConstantName() {
+        if (constantName == null) {
+            constantName = VelocityDomainModelCodeGenerator
+                    .getConstantName(value.getName());
+        }
+        return constantName;
+    }
+
+    /**
+     * Getter method for description.
+     *
+     * @return the lines of the description.
+     */
+    public List<String> getDescription() {
+        if (description == null) {
+            description = VelocityDomainModelCodeGenerator.splitDescription(72,
+                    value.getDescription());
+        }
+        return description;
+    }
+
+    /**
+     * Getter method for getter.
+     *
+     * @return the name of the getter method.
+     */
+    public String getGetter() {
+        return getter;
+    }
+
+    /**
+     * Getter method for setter.
+     *
+     * @return the name of the setter method.
+     */
+    public String getSetter() {
+        return setter;
+    }
+
+    /**
+     * Getter method for instanceName.
+     *
+     * @return the name of the value as declared in the model.
+     */
+    public String getInstanceName() {
+        return value.getName();
+    }
+
+    /**
+     * Getter method for name.
+     *
+     * @return the capitalized name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter method for offset.
+     *
+     * @return the offset within the record of a flyweight, null if the entity
+     *         has no flyweight.
+     */
+    public Integer getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns a string that "textually represents" this object.
+     *
+     * @return A String representation of this instance.
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "[" + "[name=" + value.getName() + "]" + "[className="
+                + value.getClassName() + "]" + "[offset=" + offset + "]" + "]";
+    }
+}
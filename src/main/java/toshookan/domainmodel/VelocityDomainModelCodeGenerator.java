@@ -1,23 +1,29 @@
 package toshookan.domainmodel;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.Writer;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
+import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.log.LogSystem;
 import org.apache.velocity.test.provider.TestProvider;
@@ -33,6 +39,23 @@ import org.apache.velocity.test.provider.TestProvider;
  * This implementation allows for easy management of the generated source while
  * remaining simple in design. Because the source is defined in templates little
  * or no coding is required to modify the code that is generated.
+ * <p>
+ * Entities are independent of each other so the generator can render them on
+ * several worker threads. Each entity is handled by exactly one worker which
+ * builds its contexts, merges its templates and writes its files, so the
+ * output is the same regardless of the number of workers. The model can also
+ * be generated while it is parsed so that only a few entities are held in
+ * memory at a time.
+ * <p>
+ * In incremental mode a manifest of fingerprints is kept in the output root.
+ * Files whose entity definition, template and generator version are unchanged
+ * since the previous run are not regenerated and the files of entities that
+ * have been removed from the model are deleted.
+ * <p>
+ * The files are rendered into memory and handed to an OutputSink. By default
+ * a FileOutputSink on the output root is used, which only replaces files whose
+ * content has changed. For the content to be reproducible the creation date
+ * written into the classes can be fixed.
  * 
  * Created: Dec 2, 2009
  * 
@@ -47,6 +70,8 @@ public class VelocityDomainModelCodeGenerator implements
 
 	private static final Logger LOGGER = Logger.getLogger(CLASSNAME);
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	private static final Map LOG_LEVEL_MAP = new HashMap();
 	static {
 		LOG_LEVEL_MAP.put(new Integer(LogSystem.DEBUG_ID), Level.FINER);
@@ -55,21 +80,81 @@ public class VelocityDomainModelCodeGenerator implements
 		LOG_LEVEL_MAP.put(new Integer(LogSystem.ERROR_ID), Level.SEVERE);
 	}
 
-	private static final Map TEST_DATA = new HashMap();
+	/*
+	 * The value types supported by the binary codec, mapped to the primitive
+	 * type used to encode them. Boxed and reference types are nullable.
+	 */
+	private static final Map<String, String> CODEC_TYPES = new HashMap<String, String>();
 	static {
-		TEST_DATA.put("int", "1");
-		TEST_DATA.put("Integer", "1");
-		TEST_DATA.put("long", "1l");
-		TEST_DATA.put("Long", "1l");
-		TEST_DATA.put("float", "1f");
-		TEST_DATA.put("Float", "1f");
-		TEST_DATA.put("double", "1d");
-		TEST_DATA.put("Double", "1d");
-		TEST_DATA.put("boolean", "true");
-		TEST_DATA.put("Boolean", "true");
-		TEST_DATA.put("String", "\"\"");
+		CODEC_TYPES.put("boolean", "boolean");
+		CODEC_TYPES.put("byte", "byte");
+		CODEC_TYPES.put("char", "char");
+		CODEC_TYPES.put("short", "short");
+		CODEC_TYPES.put("int", "int");
+		CODEC_TYPES.put("long", "long");
+		CODEC_TYPES.put("float", "float");
+		CODEC_TYPES.put("double", "double");
+		CODEC_TYPES.put("Boolean", "boolean");
+		CODEC_TYPES.put("Byte", "byte");
+		CODEC_TYPES.put("Character", "char");
+		CODEC_TYPES.put("Short", "short");
+		CODEC_TYPES.put("Integer", "int");
+		CODEC_TYPES.put("Long", "long");
+		CODEC_TYPES.put("Float", "float");
+		CODEC_TYPES.put("Double", "double");
+		CODEC_TYPES.put("String", "String");
+		CODEC_TYPES.put("java.lang.String", "String");
+		CODEC_TYPES.put("java.util.Date", "Date");
 	}
 
+	/*
+	 * The fixed width primitive types supported by the flyweight, mapped to
+	 * their size in bytes.
+	 */
+	private static final Map<String, Integer> FIXED_WIDTHS = new HashMap<String, Integer>();
+	static {
+		FIXED_WIDTHS.put("boolean", Integer.valueOf(1));
+		FIXED_WIDTHS.put("byte", Integer.valueOf(1));
+		FIXED_WIDTHS.put("char", Integer.valueOf(2));
+		FIXED_WIDTHS.put("short", Integer.valueOf(2));
+		FIXED_WIDTHS.put("int", Integer.valueOf(4));
+		FIXED_WIDTHS.put("float", Integer.valueOf(4));
+		FIXED_WIDTHS.put("long", Integer.valueOf(8));
+		FIXED_WIDTHS.put("double", Integer.valueOf(8));
+	}
+
+	/*
+	 * The entity types a binary codec and a flyweight are generated for.
+	 */
+	private static final Set<String> CODEC_ENTITY_TYPES = new HashSet<String>(
+			Arrays.asList("entity", "value"));
+
+	/*
+	 * The characters that start a word of a camel case name.
+	 */
+	private static final StringUtil.CharClass CAPITALS = StringUtil.CharClass
+			.of("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+	/*
+	 * The files generated for each entity: the template name, where %s is
+	 * replaced by the entity type, the code directory relative to the output
+	 * root, the suffix appended to the entity name to form the class name and
+	 * the comma separated context entries that must all be true for the file
+	 * to be generated, null if the file is always generated. A file with a
+	 * condition is also skipped if its template does not exist.
+	 */
+	private static final String[][] ARTIFACTS = {
+			{ "%s.vm", "src/", "", null },
+			{ "%sTest.vm", "test/", "Test", null },
+			{ "codec.vm", "src/", "Codec", "codecSupported" },
+			{ "codecTest.vm", "test/", "CodecTest", "codecSupported" },
+			{ "flyweight.vm", "src/", "Flyweight", "flyweightSupported" },
+			{ "store.vm", "src/", "Store", "flyweightSupported" },
+			{ "flyweightTest.vm", "test/", "FlyweightTest", "flyweightSupported" },
+			{ "columns.vm", "src/", "Columns", "columnsSupported" },
+			{ "columnsTest.vm", "test/", "ColumnsTest", "columnsSupported" },
+			{ "entityBenchmark.vm", "jmh/", "Benchmark", "benchmarks,benchmarkSupported" } };
+
 	/*
 	 * The key in the context map that identifies the name of the template that
 	 * should be used to generate the code file.
@@ -83,15 +168,116 @@ public class VelocityDomainModelCodeGenerator implements
 	static final String CONTEXT_CODE_FILE_NAME = "devtools.codegen.VelocityCodeEngine.codeFileName";
 	
 	/*
-	 * The key in the context map that identifies the root of the generated code.
+	 * The key in the context map that identifies the root of the generated code
+	 * relative to the output root.
 	 */
 	static final String CONTEXT_CODE_DIR_NAME = "devtools.codegen.VelocityCodeEngine.codeDirName";
 
+	/*
+	 * The system property used by main() to configure the number of worker
+	 * threads. Defaults to the number of available processors.
+	 */
+	static final String PROPERTY_THREADS = "toshookan.threads";
+
+	/*
+	 * The system property used by main() to enable incremental generation.
+	 */
+	static final String PROPERTY_INCREMENTAL = "toshookan.incremental";
+
+	/*
+	 * The system property used by main() to generate while the model is
+	 * parsed instead of parsing the whole model first.
+	 */
+	static final String PROPERTY_STREAMING = "toshookan.streaming";
+
+	/*
+	 * The system property used by main() to generate equals(), hashCode() and
+	 * toString() using reflection instead of field by field.
+	 */
+	static final String PROPERTY_REFLECTIVE_OBJECT_METHODS = "toshookan.reflectiveObjectMethods";
+
+	/*
+	 * The system property used by main() to generate a JMH benchmark per
+	 * entity below jmh/ in the output root.
+	 */
+	static final String PROPERTY_BENCHMARKS = "toshookan.benchmarks";
+
+	/*
+	 * The system property used by main() to keep running and regenerate
+	 * whenever the model or a template changes, see GeneratorDaemon.
+	 */
+	static final String PROPERTY_WATCH = "toshookan.watch";
+
+	/*
+	 * The system property used by main() to configure the number of I/O
+	 * threads writing the generated files. Defaults to 2, or to 0 when
+	 * writing an archive so the entries are compressed on the rendering
+	 * threads. 0 writes on the rendering threads.
+	 */
+	static final String PROPERTY_IO_THREADS = "toshookan.ioThreads";
+
+	/*
+	 * The system property used by main() to write the generated files into
+	 * the named zip or jar archive instead of the output root. An archive
+	 * always receives every file and can not be combined with incremental
+	 * generation or watching.
+	 */
+	static final String PROPERTY_ARCHIVE = "toshookan.archive";
+
+	/*
+	 * The system property used by main() to write a metrics report of the run
+	 * to the named file.
+	 */
+	static final String PROPERTY_METRICS = "toshookan.metrics";
+
+	/*
+	 * The system property used by main() to read the model from the named
+	 * binary snapshot while the model XML is unchanged, the snapshot is
+	 * written whenever the XML is parsed.
+	 */
+	static final String PROPERTY_SNAPSHOT = "toshookan.snapshot";
+
+	/*
+	 * The name of the manifest file in the output root.
+	 */
+	static final String MANIFEST_FILE_NAME = "toshookan-manifest.properties";
+
+	/*
+	 * The environment variable used by main() to fix the creation date of the
+	 * generated classes, in seconds since the epoch. See
+	 * https://reproducible-builds.org/specs/source-date-epoch/
+	 */
+	static final String ENV_SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH";
+
 	private DomainModel domainModel;
 	private String templateRoot;
+	private int threads;
+	private String outputRoot = "gen/";
+	private boolean incremental;
+	private OutputSink outputSink;
+	private Date createDate;
+	private boolean reflectiveObjectMethods;
+	private boolean benchmarks;
+	private int ioThreads;
+	private GenerationMetrics metrics;
+	private File metricsReport;
+	private volatile GenerationMetrics lastMetrics;
+
+	/*
+	 * The compiled templates by name. Velocity parses the template file on
+	 * every getTemplate() call unless its resource cache is enabled, the cache
+	 * keeps one parsed and compiled template per name for the lifetime of the
+	 * generator. Compiled templates are safe to merge from several threads.
+	 */
+	private final Map<String, CompiledTemplate> templates = new ConcurrentHashMap<String, CompiledTemplate>();
+
+	private VelocityEngine engine;
+
 
 	/**
 	 * Constructor for class VelocityDomainModelCodeGenerator.
+	 * <p>
+	 * The generated files are rendered sequentially on the calling thread.
 	 * 
 	 * @param domainModel
 	 * @param templateRoot
@@ -99,8 +285,30 @@ public class VelocityDomainModelCodeGenerator implements
 	public VelocityDomainModelCodeGenerator(DomainModel domainModel,
 			String templateRoot) {
 
+		this(domainModel, templateRoot, 1);
+	}
+
+	/**
+	 * Constructor for class VelocityDomainModelCodeGenerator.
+	 * 
+	 * @param domainModel
+	 *            the model to generate, may be null if only
+	 *            execute(File) is used.
+	 * @param templateRoot
+	 * @param threads
+	 *            the number of worker threads used to render the entities, a
+	 *            value of 1 renders on the calling thread.
+	 */
+	public VelocityDomainModelCodeGenerator(DomainModel domainModel,
+			String templateRoot, int threads) {
+
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1: "
+					+ threads);
+		}
 		this.domainModel = domainModel;
 		this.templateRoot = templateRoot;
+		this.threads = threads;
 	}
 
 	/**
@@ -114,21 +322,94 @@ public class VelocityDomainModelCodeGenerator implements
 
 		DomainModel model;
 		DomainModelHandler handler;
-		DomainModelCodeGenerator generator;
+		VelocityDomainModelCodeGenerator generator;
 		String domainModelXmlFile;
 		String templateRoot;
+		boolean streaming;
+		boolean watch;
+		boolean generated;
+		ArchiveOutputSink archive;
+		GenerationMetrics metrics;
 
 		domainModelXmlFile = "src/main/resources/domainModel.xml";
 		templateRoot = "src/main/resources/";
 
 		try {
-			handler = new DomainModelHandler();
-			handler.parse(new File(domainModelXmlFile));
-			model = handler.getDomainModel();
+			streaming = Boolean.getBoolean(PROPERTY_STREAMING);
+			watch = Boolean.getBoolean(PROPERTY_WATCH);
+			if ((System.getProperty(PROPERTY_ARCHIVE) != null)
+					&& (watch || Boolean.getBoolean(PROPERTY_INCREMENTAL))) {
+				throw new IllegalArgumentException("-D" + PROPERTY_ARCHIVE
+						+ " writes every file into the archive and can not be"
+						+ " combined with -D" + PROPERTY_WATCH + " or -D"
+						+ PROPERTY_INCREMENTAL
+						+ ", which only regenerate the changed files");
+			}
+			model = null;
+			metrics = new GenerationMetrics();
+			if (!streaming && !watch) {
+				if (System.getProperty(PROPERTY_SNAPSHOT) != null) {
+					model = DomainModelSnapshot.load(
+							new File(domainModelXmlFile),
+							new File(System.getProperty(PROPERTY_SNAPSHOT)),
+							metrics);
+				} else {
+					handler = new DomainModelHandler();
+					handler.setMetrics(metrics);
+					handler.parse(new File(domainModelXmlFile));
+					model = handler.getDomainModel();
+				}
+			}
 
 			generator = new VelocityDomainModelCodeGenerator(model,
-					templateRoot);
-			generator.execute();
+					templateRoot, Integer.getInteger(PROPERTY_THREADS, Runtime
+							.getRuntime().availableProcessors()));
+			generator.setIncremental(Boolean.getBoolean(PROPERTY_INCREMENTAL));
+			generator.setReflectiveObjectMethods(Boolean
+					.getBoolean(PROPERTY_REFLECTIVE_OBJECT_METHODS));
+			generator.setBenchmarks(Boolean.getBoolean(PROPERTY_BENCHMARKS));
+			generator.setIoThreads(Integer.getInteger(PROPERTY_IO_THREADS,
+					(System.getProperty(PROPERTY_ARCHIVE) != null) ? 0 : 2));
+			if (System.getProperty(PROPERTY_METRICS) != null) {
+				generator.setMetricsReport(new File(System
+						.getProperty(PROPERTY_METRICS)));
+				if (!watch) {
+					generator.setMetrics(metrics);
+				}
+			}
+			if (System.getenv(ENV_SOURCE_DATE_EPOCH) != null) {
+				generator.setCreateDate(new Date(1000L * Long.parseLong(System
+						.getenv(ENV_SOURCE_DATE_EPOCH).trim())));
+			}
+			archive = null;
+			if (System.getProperty(PROPERTY_ARCHIVE) != null) {
+				archive = (generator.getCreateDate() != null) ? new ArchiveOutputSink(
+						new File(System.getProperty(PROPERTY_ARCHIVE)).toPath(),
+						true, generator.getCreateDate().getTime())
+						: new ArchiveOutputSink(new File(System
+								.getProperty(PROPERTY_ARCHIVE)).toPath());
+				generator.setOutputSink(archive);
+			}
+			generated = false;
+			try {
+				if (watch) {
+					new GeneratorDaemon(generator,
+							new File(domainModelXmlFile)).run();
+				} else if (streaming) {
+					generator.execute(new File(domainModelXmlFile));
+				} else {
+					generator.execute();
+				}
+				generated = true;
+			} finally {
+				if (archive != null) {
+					if (generated) {
+						archive.close();
+					} else {
+						archive.abort();
+					}
+				}
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -137,69 +418,647 @@ public class VelocityDomainModelCodeGenerator implements
 	/**
 	 * Performs the code generation logic.
 	 * <p>
-	 * full description
+	 * Every entity is rendered even if some of them fail. The failures are
+	 * reported together, in model order, once all of the entities have been
+	 * processed.
 	 * 
 	 * @throws Exception
 	 *             when the code generation fails
 	 */
 	public void execute() throws Exception {
 
-		Iterator contextIter;
-		VelocityContext context;
-		Template template;
-		File file;
-		Writer writer;
-		Collection contexts;
-		Iterator entitiesIter;
-		Entity entity;
-
-		/*
-		 * Convert the model into context maps, one map for each file to be
-		 * generated.
+		Run run;
+
+		run = new Run(domainModel);
+		try {
+			for (Entity entity : domainModel.getEntities()) {
+				run.submit(entity);
+			}
+		} catch (Exception e) {
+			run.abort();
+			throw e;
+		}
+		run.finish();
+	}
+
+	/**
+	 * Performs the code generation logic while the model is parsed.
+	 * <p>
+	 * Each entity is generated as soon as it has been parsed and is released
+	 * once its files have been written. At most two entities per worker thread
+	 * are held in memory at any time, so the memory needed does not grow with
+	 * the size of the model. The model passed to the constructor is not used.
+	 * <p>
+	 * Only the names of the parsed entities are kept to resolve super-classes,
+	 * so a super-class is only recognized as an entity of the model if it is
+	 * declared before its subclasses.
+	 * <p>
+	 * If the model can not be parsed the generation is aborted, in incremental
+	 * mode the manifest is left unchanged.
+	 * 
+	 * @param domainModelXmlFile
+	 *            the XML file describing the model.
+	 * @throws Exception
+	 *             when the parsing or the code generation fails
+	 */
+	public void execute(File domainModelXmlFile) throws Exception {
+
+		final Run run;
+		DomainModelHandler handler;
+
+		run = new Run(new DomainModel());
+		handler = new DomainModelHandler();
+		handler.setMetrics(run.metrics);
+		handler.setEntityListener(new EntityListener() {
+			public void entityParsed(Entity entity) throws Exception {
+				run.addName(entity);
+				run.submit(entity);
+			}
+		});
+		try {
+			handler.parse(domainModelXmlFile);
+		} catch (Exception e) {
+			run.abort();
+			throw e;
+		}
+		run.finish();
+	}
+
+	/**
+	 * Wraps an entity failure so the entity can be identified in the report.
+	 * 
+	 * @param entity
+	 *            the entity that failed.
+	 * @param cause
+	 *            the failure.
+	 * @return the wrapped failure.
+	 */
+	private static Exception createFailure(Entity entity, Exception cause) {
+		return new Exception("Failed to generate entity "
+				+ entity.getPackageName() + "." + entity.getName() + ": "
+				+ cause, cause);
+	}
+
+	/**
+	 * Aggregates the entity failures into a single exception.
+	 * <p>
+	 * The first failure is the cause, all of the failures are attached as
+	 * suppressed exceptions.
+	 * 
+	 * @param failures
+	 *            the entity failures in model order.
+	 * @return the aggregated failure.
+	 */
+	private static Exception createFailure(Collection<Exception> failures) {
+
+		Exception result;
+		Exception first;
+
+		first = failures.iterator().next();
+		result = new Exception("Code generation failed for "
+				+ failures.size() + " entities, first failure: "
+				+ first.getMessage(), first);
+		for (Exception failure : failures) {
+			result.addSuppressed(failure);
+		}
+		return result;
+	}
+
+	/**
+	 * The state of a single execution of the generator.
+	 * <p>
+	 * Entities are submitted in model order. With more than one thread the
+	 * entities are generated by a pool of workers, the number of entities
+	 * waiting for or being generated is bounded so a fast producer such as
+	 * the parser can not run ahead of the workers.
+	 */
+	private class Run {
+
+		private final DomainModel model;
+		private final ExecutorService executor;
+		private final Semaphore inFlight;
+		private final Map<Integer, Exception> failures;
+		private final OutputSink sink;
+		private final AsyncOutputSink asyncSink;
+		private final ThreadLocal<StringWriter> writers;
+		private final Date runDate;
+		private final GenerationManifest manifest;
+		private final Map<String, String> templateFingerprints;
+		private final Map<String, Object> settings;
+		private final VelocityEngine engine;
+		private final GenerationMetrics metrics;
+		private int count;
+
+		/**
+		 * Constructor for class Run.
+		 * <p>
+		 * Initializes Velocity and the output.
+		 * 
+		 * @param model
+		 *            the model the super-classes of the entities are looked
+		 *            up in.
+		 * @throws IllegalStateException
+		 *             when incremental generation is combined with a sink
+		 *             that does not write to the output root.
+		 * @throws Exception
+		 *             when Velocity or the manifest can not be initialized.
+		 */
+		Run(DomainModel model) throws Exception {
+
+			if (incremental && (outputSink != null)
+					&& !(outputSink instanceof FileOutputSink)) {
+				throw new IllegalStateException(
+						"Incremental generation skips unchanged files and "
+								+ "requires the files to be written to the "
+								+ "output root");
+			}
+			this.model = model;
+			engine = getEngine();
+			metrics = (getMetrics() != null) ? getMetrics()
+					: new GenerationMetrics();
+			lastMetrics = metrics;
+			if (ioThreads > 0) {
+				asyncSink = new AsyncOutputSink((outputSink != null) ? outputSink
+						: new FileOutputSink(new File(outputRoot).toPath()),
+						ioThreads);
+				sink = asyncSink;
+			} else {
+				asyncSink = null;
+				sink = (outputSink != null) ? outputSink : new FileOutputSink(
+						new File(outputRoot).toPath());
+			}
+			writers = new ThreadLocal<StringWriter>() {
+				protected StringWriter initialValue() {
+					return new StringWriter(8192);
+				}
+			};
+			runDate = (createDate != null) ? createDate : new Date();
+			settings = new TreeMap<String, Object>();
+			settings.put("reflectiveObjectMethods",
+					Boolean.valueOf(reflectiveObjectMethods));
+			settings.put("benchmarks", Boolean.valueOf(benchmarks));
+			if (incremental) {
+				manifest = new GenerationManifest(new File(outputRoot,
+						MANIFEST_FILE_NAME));
+				templateFingerprints = new ConcurrentHashMap<String, String>();
+			} else {
+				manifest = null;
+				templateFingerprints = null;
+			}
+
+			failures = new TreeMap<Integer, Exception>();
+			if (threads > 1) {
+				executor = Executors.newFixedThreadPool(threads);
+				inFlight = new Semaphore(threads * 2);
+			} else {
+				executor = null;
+				inFlight = null;
+			}
+		}
+
+		/**
+		 * Adds the name of a parsed entity to the model, so the entities
+		 * parsed after it can extend it.
+		 * 
+		 * @param entity
+		 *            the parsed entity.
+		 */
+		void addName(Entity entity) {
+
+			Entity name;
+
+			name = new Entity();
+			name.setName(entity.getName());
+			name.setPackageName(entity.getPackageName());
+			synchronized (model) {
+				model.addEntity(name);
+			}
+		}
+
+		/**
+		 * Generates the entity, or hands it to a worker. Blocks while the
+		 * workers are busy with the maximum number of entities.
+		 * 
+		 * @param entity
+		 *            the entity to generate.
+		 * @throws InterruptedException
+		 *             when interrupted while waiting for a worker.
+		 */
+		void submit(final Entity entity) throws InterruptedException {
+
+			final int index = count++;
+
+			if (executor == null) {
+				generate(index, entity);
+				return;
+			}
+
+			inFlight.acquire();
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							generate(index, entity);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				inFlight.release();
+				throw e;
+			}
+		}
+
+		/**
+		 * Waits for the submitted entities to be generated and written,
+		 * updates the manifest and reports the failures.
+		 * <p>
+		 * If files could not be written the manifest is left unchanged, the
+		 * fingerprints of files written in the background have already been
+		 * recorded. If entities failed no stale files are removed and the
+		 * files this run did not generate keep their previous fingerprints.
+		 * 
+		 * @throws Exception
+		 *             when any of the entities failed.
+		 */
+		void finish() throws Exception {
+
+			boolean failed;
+
+			if (executor != null) {
+				executor.shutdown();
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					// keep waiting for the workers
+				}
+			}
+
+			if (asyncSink != null) {
+				try {
+					asyncSink.close();
+				} catch (IOException e) {
+					synchronized (failures) {
+						if (!failures.isEmpty()) {
+							e.addSuppressed(createFailure(failures.values()));
+						}
+					}
+					throw e;
+				}
+			}
+
+			metrics.finish();
+			if (metricsReport != null) {
+				metrics.writeReport(metricsReport);
+			}
+
+			if (manifest != null) {
+				/*
+				 * An entity that failed may not have reached its files, they
+				 * are kept with their previous fingerprints rather than
+				 * removed as stale.
+				 */
+				synchronized (failures) {
+					failed = !failures.isEmpty();
+				}
+				if (failed) {
+					manifest.retainPrevious();
+				} else {
+					logVelocityMessage(1, "VelocityCodeEngine: removed "
+							+ manifest.removeStaleFiles(new File(outputRoot))
+							+ " stale files");
+				}
+				manifest.store();
+			}
+
+			synchronized (failures) {
+				if (!failures.isEmpty()) {
+					throw createFailure(failures.values());
+				}
+			}
+		}
+
+		/**
+		 * Stops the workers without updating the manifest.
 		 */
-		contexts = new ArrayList();
-		entitiesIter = domainModel.getEntities().iterator();
-		while (entitiesIter.hasNext()) {
-			entity = (Entity) entitiesIter.next();
-			contexts.add(createEntityContext(entity));
-			contexts.add(createEntityTestContext(entity));
+		void abort() {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			if (asyncSink != null) {
+				try {
+					asyncSink.close();
+				} catch (IOException e) {
+					// the run has already failed
+				}
+			}
+		}
+
+		/**
+		 * Generates all of the files for a single entity, recording the
+		 * failure if any.
+		 * 
+		 * @param index
+		 *            the position of the entity in the model.
+		 * @param entity
+		 *            the entity to generate.
+		 */
+		private void generate(int index, Entity entity) {
+			try {
+				generate(entity);
+			} catch (Exception e) {
+				synchronized (failures) {
+					failures.put(index, createFailure(entity, e));
+				}
+			}
+		}
+
+		/**
+		 * Generates all of the files for a single entity.
+		 * <p>
+		 * In incremental mode an entity whose fingerprint and templates match
+		 * the previous run is skipped before its context is built.
+		 * 
+		 * @param entity
+		 *            the entity to generate.
+		 * @throws Exception
+		 *             when the code generation fails
+		 */
+		private void generate(Entity entity) throws Exception {
+
+			Map<String, Object> entityContext;
+			VelocityContext sharedContext;
+			VelocityContext context;
+			String entityFingerprint;
+			String entityRecord;
+			String entityName;
+			boolean superClassEntity;
+			long start;
+			long allocated;
+			long phaseStart;
+
+			entityName = entity.getPackageName() + "." + entity.getName();
+			start = metrics.begin();
+			allocated = metrics.allocatedBytes();
+			synchronized (model) {
+				superClassEntity = isSuperClassEntity(entity, model);
+			}
+			if (manifest != null) {
+				entityFingerprint = GenerationManifest.fingerprint(entity,
+						superClassEntity, settings);
+				entityRecord = getEntityFingerprint(entity, entityFingerprint);
+				if (manifest.isEntityUnchanged(entityName, entityRecord,
+						getFileNames(entity), new File(outputRoot))) {
+					metrics.endEntity(entityName, start, allocated);
+					return;
+				}
+			} else {
+				entityFingerprint = null;
+				entityRecord = null;
+			}
+			phaseStart = metrics.begin();
+			entityContext = createEntityContext(entity, superClassEntity,
+					runDate);
+			entityContext.putAll(settings);
+			sharedContext = new VelocityContext(entityContext);
+			metrics.end(GenerationMetrics.Phase.CONTEXT, phaseStart,
+					entityName);
+			for (int i = 0; i < ARTIFACTS.length; ++i) {
+				/*
+				 * References set by a template go to the file context, the
+				 * shared context is not changed by merging.
+				 */
+				context = new VelocityContext(createArtifactContext(entity,
+						ARTIFACTS[i]), sharedContext);
+				if (isGenerated(context, ARTIFACTS[i])) {
+					merge(context, entityFingerprint);
+				}
+			}
+			if (entityRecord != null) {
+				manifest.putEntity(entityName, entityRecord);
+			}
+			metrics.endEntity(entityName, start, allocated);
+		}
+
+		/**
+		 * Combines the fingerprint of an entity with the fingerprints of all
+		 * of the templates its files may be generated from. A template that
+		 * does not exist is recorded as absent, so adding it regenerates the
+		 * entity.
+		 * 
+		 * @param entity
+		 *            the entity.
+		 * @param entityFingerprint
+		 *            the fingerprint of the entity.
+		 * @return the hex encoded fingerprint.
+		 * @throws Exception
+		 *             when a template can not be read.
+		 */
+		private String getEntityFingerprint(Entity entity,
+				String entityFingerprint) throws Exception {
+
+			StringBuilder buffer;
+			String templateName;
+
+			buffer = new StringBuilder();
+			for (int i = 0; i < ARTIFACTS.length; ++i) {
+				templateName = String.format(ARTIFACTS[i][0], entity.getType());
+				buffer.append(templateName).append('=');
+				if (new File(templateRoot, templateName).exists()) {
+					buffer.append(getTemplateFingerprint(templateName));
+				}
+				buffer.append(';');
+			}
+			return GenerationManifest.fingerprint(entityFingerprint,
+					buffer.toString());
 		}
 
-		/*
-		 * Velocity Constants are not accessed directly because they live on the
-		 * Runtime which is not part of the public API.
+		/**
+		 * Determines if the file described by the context is generated.
+		 * 
+		 * @param context
+		 *            the context of the file.
+		 * @param artifact
+		 *            the entry of ARTIFACTS describing the file.
+		 * @return true if the file should be generated.
 		 */
-		Velocity.setProperty(Velocity.RUNTIME_LOG_LOGSYSTEM, this);
-		Velocity.setProperty(Velocity.FILE_RESOURCE_LOADER_PATH, templateRoot);
-		Velocity.init();
+		private boolean isGenerated(VelocityContext context, String[] artifact) {
+
+			String[] flags;
 
-		/*
-		 * Use Velocity to generate the files.
+			if (artifact[3] == null) {
+				return true;
+			}
+			flags = artifact[3].split(",");
+			for (int i = 0; i < flags.length; ++i) {
+				if (!Boolean.TRUE.equals(context.get(flags[i]))) {
+					return false;
+				}
+			}
+			return templates.containsKey(context.get(CONTEXT_TEMPLATE_NAME))
+					|| engine.templateExists((String) context
+							.get(CONTEXT_TEMPLATE_NAME));
+		}
+
+		/**
+		 * Uses Velocity to generate the file described by the context.
+		 * <p>
+		 * In incremental mode the file is skipped if its fingerprint matches
+		 * the previous run.
+		 * 
+		 * @param context
+		 *            the context holding the template and code file names.
+		 * @param entityFingerprint
+		 *            the fingerprint of the entity, null if not incremental.
+		 * @throws Exception
+		 *             when the template can not be merged or written.
 		 */
-		contextIter = contexts.iterator();
-		while (contextIter.hasNext()) {
-			context = new VelocityContext((Map) contextIter.next());
-			template = Velocity.getTemplate((String) context
-					.get(CONTEXT_TEMPLATE_NAME));
-			file = new File((String) context.get(CONTEXT_CODE_DIR_NAME)
-					+ (String) context.get(CONTEXT_CODE_FILE_NAME));
-
-			logVelocityMessage(
-					1,
-					"VelocityCodeEngine: creating file "
-							+ file.getAbsolutePath());
-
-			file.getParentFile().mkdirs();
-			writer = new FileWriter(file);
+		private void merge(VelocityContext context, String entityFingerprint)
+				throws Exception {
+
+			CompiledTemplate template;
+			String templateName;
+			String fileName;
+			String fingerprint = null;
+			File file;
+			StringWriter writer;
+			byte[] content;
+			long start;
+
+			templateName = (String) context.get(CONTEXT_TEMPLATE_NAME);
+			fileName = (String) context.get(CONTEXT_CODE_DIR_NAME)
+					+ (String) context.get(CONTEXT_CODE_FILE_NAME);
+			file = new File(outputRoot, fileName);
+
+			if (entityFingerprint != null) {
+				fingerprint = GenerationManifest.fingerprint(
+						entityFingerprint, getTemplateFingerprint(templateName));
+				if (manifest.isUnchanged(fileName, fingerprint, file)) {
+					manifest.put(fileName, fingerprint);
+					return;
+				}
+			}
+
+			start = metrics.begin();
+			template = getTemplate(templateName);
+			metrics.end(GenerationMetrics.Phase.TEMPLATE, start, templateName);
+
+			logVelocityMessage(1, "VelocityCodeEngine: creating file "
+					+ file.getAbsolutePath());
+
+			start = metrics.begin();
+			writer = writers.get();
+			writer.getBuffer().setLength(0);
 			template.merge(context, writer);
-			writer.close();
+			content = writer.toString().getBytes(UTF_8);
+			metrics.end(GenerationMetrics.Phase.MERGE, start, fileName);
+
+			start = metrics.begin();
+			sink.write(fileName, content);
+			metrics.endWrite(start, fileName, content.length);
+
+			if (fingerprint != null) {
+				manifest.put(fileName, fingerprint);
+			}
+		}
+
+		/**
+		 * Returns the fingerprint of a template, each template is only read
+		 * once per run.
+		 * 
+		 * @param templateName
+		 *            the template name relative to the template root.
+		 * @return the fingerprint of the template.
+		 * @throws Exception
+		 *             when the template can not be read.
+		 */
+		private String getTemplateFingerprint(String templateName)
+				throws Exception {
+
+			String fingerprint;
+
+			fingerprint = templateFingerprints.get(templateName);
+			if (fingerprint == null) {
+				fingerprint = GenerationManifest.fingerprint(new File(
+						templateRoot, templateName));
+				templateFingerprints.put(templateName, fingerprint);
+			}
+			return fingerprint;
 		}
 	}
 
 	/**
-	 * short summary of the method
+	 * Returns the Velocity engine of this generator, initializing it on first
+	 * use.
 	 * <p>
-	 * full description
+	 * Every generator has its own engine with its own template root and log,
+	 * so generators with different configurations can run concurrently in
+	 * one JVM. The engine is shared by the runs of the generator.
+	 * 
+	 * @return the initialized engine.
+	 * @throws Exception
+	 *             when the engine can not be initialized.
+	 */
+	synchronized VelocityEngine getEngine() throws Exception {
+
+		VelocityEngine velocityEngine;
+
+		if (engine == null) {
+			/*
+			 * Velocity Constants are not accessed directly because they live
+			 * on the Runtime which is not part of the public API.
+			 */
+			velocityEngine = new VelocityEngine();
+			velocityEngine.setProperty(VelocityEngine.RUNTIME_LOG_LOGSYSTEM,
+					this);
+			velocityEngine.setProperty(
+					VelocityEngine.FILE_RESOURCE_LOADER_PATH, templateRoot);
+			velocityEngine.setProperty(VelocityEngine.INPUT_ENCODING, "UTF-8");
+			velocityEngine.init();
+			engine = velocityEngine;
+		}
+		return engine;
+	}
+
+	/**
+	 * Returns the compiled template, parsing and compiling it on first use.
+	 * <p>
+	 * Two threads may compile the same template concurrently on first use, the
+	 * result is the same and one of the copies is kept.
+	 * 
+	 * @param templateName
+	 *            the template name relative to the template root.
+	 * @return the compiled template.
+	 * @throws Exception
+	 *             when the template can not be found, parsed or compiled.
+	 */
+	CompiledTemplate getTemplate(String templateName) throws Exception {
+
+		CompiledTemplate template;
+
+		template = templates.get(templateName);
+		if (template == null) {
+			template = CompiledTemplate.compile(
+					getEngine().getTemplate(templateName), getEngine());
+			templates.put(templateName, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Discards the compiled templates so changed template files are parsed
+	 * again by the next run.
+	 */
+	public void clearTemplates() {
+		templates.clear();
+	}
+
+	/**
+	 * Creates the context entries shared by all of the files generated for an
+	 * entity.
+	 * <p>
+	 * Every entry is computed once per entity. The entityValues are typed
+	 * {@link ValueView}s rather than maps, the value entries are their
+	 * properties.
 	 * <p>
 	 * Default context entries:
 	 * <ul>
@@ -208,12 +1067,27 @@ public class VelocityDomainModelCodeGenerator implements
 	 * <li>classImports</li>
 	 * <li>className</li>
 	 * <li>classPackage</li>
+	 * <li>classSuperClass</li>
+	 * <li>classSuperEntity</li>
 	 * <li>entityClassName</li>
 	 * <li>entityDescription</li>
 	 * <li>entityInstanceName</li>
 	 * <li>entityPackage</li>
+	 * <li>entityType</li>
 	 * <li>entityValues</li>
+	 * <li>benchmarkSupported</li>
+	 * <li>codecSupported</li>
+	 * <li>columnsSupported</li>
+	 * <li>flyweightSupported</li>
+	 * <li>recordSize</li>
 	 * <li>value.className</li>
+	 * <li>value.bufferType</li>
+	 * <li>value.codec</li>
+	 * <li>value.columnType</li>
+	 * <li>value.constantName</li>
+	 * <li>value.kind</li>
+	 * <li>value.nullable</li>
+	 * <li>value.offset</li>
 	 * <li>value.testValue</li>
 	 * <li>value.description</li>
 	 * <li>value.getter</li>
@@ -223,202 +1097,238 @@ public class VelocityDomainModelCodeGenerator implements
 	 * </ul>
 	 * 
 	 * @param entity
+	 * @param superClassEntity
+	 *            the value of classSuperEntity, whether the super-class is
+	 *            an entity of the model.
+	 * @param createDate
+	 *            the value of classCreateDate.
 	 * @return entity context
 	 */
-	private static Map createEntityContext(Entity entity) {
+	static Map<String, Object> createEntityContext(Entity entity,
+			boolean superClassEntity, Date createDate) {
+
+		Map<String, Object> context;
+		List<ValueView> contextValues;
+		Set<String> classImports;
+		Integer[] offsets;
+		boolean codecSupported;
+		boolean flyweightSupported;
+		String className;
+		List<String> description;
 
-		Map context;
-		Value value;
-		Map contextValue;
-		Iterator valueIter;
+		context = new HashMap<String, Object>();
+		contextValues = new ArrayList<ValueView>(entity.getValues().size());
+		classImports = new HashSet<String>();
+		className = TypeDescriptor.forName(entity.getName())
+				.getSimpleName();
+		description = splitDescription(77, entity.getDescription());
 
-		context = new HashMap();
-		
 		context.put(VelocityDomainModelCodeGenerator.CONTEXT_TEMPLATE_NAME,
 				entity.getType() + ".vm");		
 		context.put(VelocityDomainModelCodeGenerator.CONTEXT_CODE_DIR_NAME,
-				"gen/src/");
+				"src/");
 		context.put(
 				VelocityDomainModelCodeGenerator.CONTEXT_CODE_FILE_NAME,
 				getFileNameFromClassName(entity.getPackageName() + "."
 						+ entity.getName()));
-		context.put("className", entity.getName());
-		context.put("classPackage", entity.getPackageName());
-		context.put("classSuperClass", getClassName(entity.getSuperClass()));
+		context.put("classSuperClass",
+				TypeDescriptor.forName(entity.getSuperClass())
+						.getSimpleName());
+		context.put("classSuperEntity", Boolean.valueOf(superClassEntity));
 
-		context.put("classCreateDate", new Date());
-		context.put("classDescription",
-				splitDescription(77, entity.getDescription()));
-		context.put("classImports", new HashSet());
-		context.put("className", getClassName(entity.getName()));
+		context.put("classCreateDate", createDate);
+		context.put("classDescription", description);
+		context.put("classImports", classImports);
+		context.put("className", className);
 		context.put("classPackage", entity.getPackageName());
 
-		context.put("entityClassName", getClassName(entity.getName()));
+		context.put("entityClassName", className);
 		context.put("entityDisplayName", getDisplayName(entity.getName()));
-		context.put("entityDescription",
-				splitDescription(77, entity.getDescription()));
-		context.put("entityInstanceName",
-				uncapitalize(getClassName(entity.getName())));
+		context.put("entityDescription", description);
+		context.put("entityInstanceName", uncapitalize(className));
 		context.put("entityPackage", entity.getPackageName());
-		context.put("entityValues", new ArrayList());
-
-		valueIter = entity.getValues().iterator();
-		while (valueIter.hasNext()) {
-			value = (Value) valueIter.next();
-
-			contextValue = new HashMap();
-			((List) context.get("entityValues")).add(contextValue);
-
-			contextValue.put("className", getClassName(value.getClassName()));
-			contextValue.put("testValue", getTestValue(value.getClassName()));
-			contextValue.put("description",
-					splitDescription(72, value.getDescription()));
-			if(value.getClassName() != null) {
-				contextValue.put("getter",
-						((value.getClassName().equals("boolean") || value.getClassName().equals("Boolean")) ? "is" : "get")
-								+ capitalize(value.getName()));
-			}
-			contextValue.put("setter", "set" + capitalize(value.getName()));
-			contextValue.put("instanceName", value.getName());
-			contextValue.put("name", capitalize(value.getName()));
-			((Set) context.get("classImports")).addAll(getImport(value
-					.getClassName()));
-		}
-		((Set) context.get("classImports")).addAll(getImport(entity
-				.getSuperClass()));
-		((Set) context.get("classImports")).remove(null);
+		context.put("entityValues", contextValues);
+		context.put("entityType", entity.getType());
+
+		codecSupported = CODEC_ENTITY_TYPES.contains(entity.getType())
+				&& !StringUtil.isSet(entity.getSuperClass());
+		flyweightSupported = codecSupported && !entity.getValues().isEmpty();
+		context.put("benchmarkSupported", Boolean.valueOf(CODEC_ENTITY_TYPES
+				.contains(entity.getType())));
+		context.put("columnsSupported", Boolean.valueOf(codecSupported
+				&& !entity.getValues().isEmpty()));
+
+		for (Value value : entity.getValues()) {
+			if (!CODEC_TYPES.containsKey(value.getClassName())) {
+				codecSupported = false;
+			}
+			if (!FIXED_WIDTHS.containsKey(value.getClassName())) {
+				flyweightSupported = false;
+			}
+			classImports.addAll(TypeDescriptor.forName(value.getClassName())
+					.getImports());
+		}
+		classImports.addAll(TypeDescriptor.forName(entity.getSuperClass())
+				.getImports());
+		context.put("codecSupported", Boolean.valueOf(codecSupported));
+		context.put("flyweightSupported", Boolean.valueOf(flyweightSupported));
+
+		offsets = new Integer[entity.getValues().size()];
+		if (flyweightSupported) {
+			context.put("recordSize",
+					Integer.valueOf(layoutRecord(entity, offsets)));
+		}
+		for (int i = 0; i < offsets.length; ++i) {
+			contextValues.add(new ValueView(entity.getValues().get(i),
+					offsets[i]));
+		}
 
 		return context;
 	}
 
 	/**
-	 * Creates default context entries but sets template and sync for an entity
-	 * test case instead of an entity.
+	 * Assigns each value an offset within a fixed size record.
+	 * <p>
+	 * The values are laid out from the widest to the narrowest so every value
+	 * is aligned to its own size without padding. The record size is rounded
+	 * up to a multiple of 8 so consecutive records stay aligned as well.
 	 * 
 	 * @param entity
-	 * @return
+	 * @param offsets
+	 *            receives the offset of each of the values.
+	 * @return the record size.
 	 */
-	private static Map createEntityTestContext(Entity entity) {
+	private static int layoutRecord(Entity entity, Integer[] offsets) {
 
-		Map context;
+		int offset = 0;
 
-		context = createEntityContext(entity);
+		for (int width = 8; width > 0; width /= 2) {
+			for (int i = 0; i < offsets.length; ++i) {
+				if (FIXED_WIDTHS.get(entity.getValues().get(i).getClassName())
+						.intValue() == width) {
+					offsets[i] = Integer.valueOf(offset);
+					offset += width;
+				}
+			}
+		}
+		return (offset + 7) & ~7;
+	}
+
+	/**
+	 * Creates the entries that differ between the files generated for an
+	 * entity: the template and the code file names. The other entries are
+	 * shared through the entity context.
+	 * 
+	 * @param entity
+	 * @param artifact
+	 *            the entry of ARTIFACTS describing the file.
+	 * @return the file specific context entries.
+	 */
+	private static Map<String, Object> createArtifactContext(Entity entity,
+			String[] artifact) {
+
+		Map<String, Object> context;
+
+		context = new HashMap<String, Object>();
 
 		context.put(VelocityDomainModelCodeGenerator.CONTEXT_TEMPLATE_NAME,
-				entity.getType() + "Test.vm");
+				String.format(artifact[0], entity.getType()));
 		context.put(VelocityDomainModelCodeGenerator.CONTEXT_CODE_DIR_NAME,
-				"gen/test/");
+				artifact[1]);
 		context.put(
 				VelocityDomainModelCodeGenerator.CONTEXT_CODE_FILE_NAME,
 				getFileNameFromClassName(entity.getPackageName() + "."
-						+ entity.getName() + "Test"));
+						+ entity.getName() + artifact[2]));
 
 		return context;
 	}
 
 	/**
-	 * Filters the supplied type into a class import.
+	 * Maps the name of every file that may be generated for the entities to
+	 * the entity it is generated from.
 	 * <p>
-	 * If no import is needed for the class i.e. no package is specified or the
-	 * specified package is java.lang null is returned.
+	 * Includes the files of all of the artifacts whether or not they are
+	 * generated for the entity, a file name that was not generated is simply
+	 * never looked up.
 	 * 
-	 * @param fullClassName
-	 *            an objects fully qualified class name.
-	 * @return the import statement portion of the class name or null.
-	 */
-	private static Collection getImport(String fullClassName) {		
-		
-		Collection result;
-		boolean generic;
-		int openAngleIndex;
-		String unwrappedClassName;
-		String[] multiValueGeneric;
-		
-		result = new ArrayList();
-		if (StringUtil.isSet(fullClassName)) {
-		
-			openAngleIndex = fullClassName.indexOf('<');
-			
-			if(openAngleIndex > -1) {				
-				//get front
-				result.add(fullClassName.substring(0, openAngleIndex));
-				
-				//unwrap
-				unwrappedClassName = fullClassName.substring(openAngleIndex+1, fullClassName.lastIndexOf('>'));
-				
-				// split multivalue generic e.g. Map<X,Y>				
-				multiValueGeneric = unwrappedClassName.split(",");
-				for (String className : multiValueGeneric) {
-					result.addAll(getImport(className.trim()));
-				}
-			}
-			// if fully qualified 
-			else if (fullClassName.contains(".")) {
-				result.add(fullClassName);
+	 * @param entities
+	 *            the entities of the model.
+	 * @return the file names relative to the output root mapped to the
+	 *         entities.
+	 */
+	static Map<String, Entity> getFileEntities(Collection<Entity> entities) {
+
+		Map<String, Entity> result;
+
+		result = new HashMap<String, Entity>();
+		for (Entity entity : entities) {
+			for (String fileName : getFileNames(entity)) {
+				result.put(fileName, entity);
 			}
 		}
-		
 		return result;
 	}
 
 	/**
-	 * Returns a literal value that is assignable to a class matching the
-	 * supplied class name.
+	 * Returns the names of all of the files that may be generated for an
+	 * entity, whether or not they are generated.
 	 * 
-	 * @param className
-	 * @return
+	 * @param entity
+	 * @return the file names relative to the output root.
 	 */
-	private static String getTestValue(String className) {
-		String testValue = (String) TEST_DATA.get(className);
-		if (testValue == null) {
-			testValue = "null";
+	static List<String> getFileNames(Entity entity) {
+
+		List<String> result;
+
+		result = new ArrayList<String>(ARTIFACTS.length);
+		for (int i = 0; i < ARTIFACTS.length; ++i) {
+			result.add(ARTIFACTS[i][1]
+					+ getFileNameFromClassName(entity.getPackageName() + "."
+							+ entity.getName() + ARTIFACTS[i][2]));
 		}
-		return testValue;
+		return result;
 	}
 
 	/**
-	 * Converts a full class name into just the class name.
+	 * Returns the name of the binary encoding of a type.
 	 * 
-	 * @param fullClassName
-	 *            an objects fully qualified class name.
-	 * @return The class name of the object with the package portion removed.
+	 * @param className
+	 * @return the codec name, null if the type can not be encoded.
 	 */
-	private static String getClassName(String fullClassName) {
-		
-		if(!StringUtil.isSet(fullClassName)) {
-			return null;
-		}
-		
-		fullClassName += " ";
-		char[] classNameArray = fullClassName.toCharArray();
-		StringBuilder buffer = new StringBuilder();
-		List<String> tokens = new ArrayList<String>();		
-		String className;
-		int dotIndex;
-		for(int i = 0; i < fullClassName.length(); ++i) {
-			if("<>, ".indexOf(classNameArray[i]) > -1) {
-				if(buffer.length() > 0) {
-					className = buffer.toString();
-					dotIndex = className.lastIndexOf('.');
-					if(dotIndex > -1) {
-						className = className.substring(dotIndex+1);
-					}
-					tokens.add(className.trim());
-				}
-				buffer = new StringBuilder();
-				tokens.add(classNameArray[i] + "");
-			}
-			else {
-				buffer.append(classNameArray[i]);
-			}			
-		}
+	static String getCodec(String className) {
+		return CODEC_TYPES.get(className);
+	}
+
+	/**
+	 * Determines if the super-class of an entity is an entity of the model.
+	 * <p>
+	 * Only the super-classes from the model take part in equals() and
+	 * hashCode() of the generated classes, other classes such as
+	 * java.util.Observable may compare by identity. A qualified super-class is
+	 * looked up by its name, a simple name in the package of the entity. Type
+	 * arguments are ignored.
+	 * 
+	 * @param entity
+	 *            the entity.
+	 * @param model
+	 *            the model to look the super-class up in.
+	 * @return true if the super-class is an entity of the model, false if the
+	 *         entity has no super-class or it is not part of the model.
+	 */
+	static boolean isSuperClassEntity(Entity entity, DomainModel model) {
 
-		StringBuilder result = new StringBuilder();
-		for (String string : tokens) {
-			result.append(string);
+		String superClass;
+
+		if (!StringUtil.isSet(entity.getSuperClass())) {
+			return false;
+		}
+		superClass = TypeDescriptor.forName(entity.getSuperClass())
+				.getRawName();
+		if (superClass.indexOf('.') < 0) {
+			superClass = (entity.getPackageName() == null) ? superClass
+					: entity.getPackageName() + "." + superClass;
 		}
-		
-		return result.toString().trim();
+		return model.getEntity(superClass) != null;
 	}
 
 	/**
@@ -432,51 +1342,9 @@ public class VelocityDomainModelCodeGenerator implements
 	 *            the text to split up.
 	 * @return The description text split into lines stored in a String[].
 	 */
-	private static List splitDescription(int charWidth, String description) {
-
-		List lines = new ArrayList();
-		char[] chars = description.toCharArray();
-		char c;
-
-		StringBuffer wordBuffer = new StringBuffer();
-		StringBuffer lineBuffer = new StringBuffer();
-
-		for (int i = 0; i < chars.length; ++i) {
-			c = chars[i];
-
-			if (!Character.isWhitespace(c)) {
-				wordBuffer.append(c);
-			} else if (c == '\n') {
-				// forced new line so flush all buffers and create a new line.
-				lineBuffer.append(wordBuffer);
-				lines.add(lineBuffer.toString());
-				lines.add("<p>");
-				lineBuffer = new StringBuffer();
-				wordBuffer = new StringBuffer();
-			} else {
-				if (lineBuffer.length() + wordBuffer.length() < charWidth) {
-					// new word so flush the word buffer
-					lineBuffer.append(wordBuffer);
-					lineBuffer.append(' ');
-					wordBuffer = new StringBuffer();
-				} else {
-					// auto new line so flush all buffers and create a new line.
-					lines.add(lineBuffer.toString());
-					lineBuffer = wordBuffer;
-					lineBuffer.append(' ');
-					wordBuffer = new StringBuffer();
-				}
-			}
-		}
-		// flush all remaining characters
-		if (lineBuffer.length() + wordBuffer.length() < charWidth) {
-			lineBuffer.append(wordBuffer);
-			lines.add(lineBuffer.toString());
-		} else {
-			lines.add(lineBuffer.toString());
-			lines.add(wordBuffer.toString());
-		}
-		return lines;
+	static List<String> splitDescription(int charWidth, String description) {
+		return StringUtil.wrap(description, charWidth, "<p>",
+				new ArrayList<String>());
 	}
 
 	/**
@@ -500,13 +1368,40 @@ public class VelocityDomainModelCodeGenerator implements
 	 *            The string to Capitalize.
 	 * @return the capitalized String.
 	 */
-	private static String capitalize(String string) {
+	static String capitalize(String string) {
 		if (string == null || string.length() == 0) {
 			return string;
 		}
 		return string.substring(0, 1).toUpperCase() + string.substring(1);
 	}
 
+	/**
+	 * Converts a camel case name into an upper case constant name, e.g.
+	 * totalAmount becomes TOTAL_AMOUNT.
+	 * 
+	 * @param name
+	 *            The name to convert.
+	 * @return the constant name.
+	 */
+	static String getConstantName(String name) {
+
+		StringBuilder result;
+		char c;
+
+		if (name == null) {
+			return null;
+		}
+		result = new StringBuilder(name.length() + 4);
+		for (int i = 0; i < name.length(); ++i) {
+			c = name.charAt(i);
+			if (Character.isUpperCase(c) && (i > 0)) {
+				result.append('_');
+			}
+			result.append(Character.toUpperCase(c));
+		}
+		return result.toString();
+	}
+
 	/**
 	 * Converts a fullClassName into a file name.
 	 * <p>
@@ -529,23 +1424,303 @@ public class VelocityDomainModelCodeGenerator implements
 	 */
 	private static String getDisplayName(String name) {
 
-		String caps = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-
-		StringBuffer sb = new StringBuffer();
+		StringBuilder sb = new StringBuilder(name.length() + 8);
 
 		int start = 0;
-		int end = StringUtil.indexOfAny(name, caps);
+		int end = StringUtil.indexOfAny(name, CAPITALS, 0);
 
 		while (end != -1) {
-			sb.append(capitalize(name.substring(start, end)) + " ");
+			appendCapitalized(sb, name, start, end);
+			sb.append(' ');
 			start = end;
-			end = StringUtil.indexOfAny(name, caps, start + 1);
+			end = StringUtil.indexOfAny(name, CAPITALS, start + 1);
 		}
-		sb.append(capitalize(name.substring(start)));
+		appendCapitalized(sb, name, start, name.length());
 
 		return sb.toString();
 	}
 
+	/**
+	 * Appends a part of a string with its first letter capitalized, the same
+	 * as capitalize() without creating the substring.
+	 * 
+	 * @param sb
+	 *            the destination.
+	 * @param string
+	 *            the string holding the part.
+	 * @param start
+	 *            the start of the part.
+	 * @param end
+	 *            the end of the part.
+	 */
+	private static void appendCapitalized(StringBuilder sb, String string,
+			int start, int end) {
+
+		char first;
+
+		if (start == end) {
+			return;
+		}
+		first = string.charAt(start);
+		if (first < 128) {
+			sb.append(Character.toUpperCase(first));
+		} else {
+			sb.append(string.substring(start, start + 1).toUpperCase());
+		}
+		sb.append(string, start + 1, end);
+	}
+
+	/**
+	 * Getter method for domainModel.
+	 * 
+	 * @return the model generated by execute().
+	 */
+	public DomainModel getDomainModel() {
+		return domainModel;
+	}
+
+	/**
+	 * Setter method for domainModel.
+	 * <p>
+	 * Lets a resident generator generate a newer version of the model while
+	 * keeping its parsed templates.
+	 * 
+	 * @param domainModel
+	 *            the model generated by execute().
+	 */
+	public void setDomainModel(DomainModel domainModel) {
+		this.domainModel = domainModel;
+	}
+
+	/**
+	 * Getter method for templateRoot.
+	 * 
+	 * @return the directory holding the templates.
+	 */
+	public String getTemplateRoot() {
+		return templateRoot;
+	}
+
+	/**
+	 * Getter method for outputRoot.
+	 * 
+	 * @return the directory the code is generated into.
+	 */
+	public String getOutputRoot() {
+		return outputRoot;
+	}
+
+	/**
+	 * Setter method for outputRoot.
+	 * <p>
+	 * The generated source is written to the src directory and the generated
+	 * tests to the test directory of the output root. Defaults to gen/.
+	 * 
+	 * @param outputRoot
+	 *            the directory the code is generated into.
+	 */
+	public void setOutputRoot(String outputRoot) {
+		this.outputRoot = outputRoot;
+	}
+
+	/**
+	 * Getter method for incremental.
+	 * 
+	 * @return true if unchanged files are skipped.
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Setter method for incremental.
+	 * <p>
+	 * When set a manifest of fingerprints is kept in the output root,
+	 * entities and files that are unchanged since the previous run are
+	 * skipped and files of removed entities are deleted.
+	 * 
+	 * @param incremental
+	 *            true if unchanged files should be skipped.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Getter method for reflectiveObjectMethods.
+	 * 
+	 * @return true if equals(), hashCode() and toString() use reflection.
+	 */
+	public boolean isReflectiveObjectMethods() {
+		return reflectiveObjectMethods;
+	}
+
+	/**
+	 * Setter method for reflectiveObjectMethods.
+	 * <p>
+	 * By default equals(), hashCode() and toString() are generated field by
+	 * field, which avoids the cost of reflection on every call. Set this to
+	 * generate the commons-lang reflection based implementations instead.
+	 * 
+	 * @param reflectiveObjectMethods
+	 *            true if equals(), hashCode() and toString() should use
+	 *            reflection.
+	 */
+	public void setReflectiveObjectMethods(boolean reflectiveObjectMethods) {
+		this.reflectiveObjectMethods = reflectiveObjectMethods;
+	}
+
+	/**
+	 * Getter method for benchmarks.
+	 * 
+	 * @return true if a JMH benchmark is generated per entity.
+	 */
+	public boolean isBenchmarks() {
+		return benchmarks;
+	}
+
+	/**
+	 * Setter method for benchmarks.
+	 * <p>
+	 * When set a JMH benchmark of the generated class is written below jmh/ in
+	 * the output root for every entity and value, see the genJmh source set
+	 * of the build.
+	 * 
+	 * @param benchmarks
+	 *            true if a JMH benchmark is generated per entity.
+	 */
+	public void setBenchmarks(boolean benchmarks) {
+		this.benchmarks = benchmarks;
+	}
+
+	/**
+	 * Getter method for ioThreads.
+	 * 
+	 * @return the number of threads writing the generated files.
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	/**
+	 * Setter method for ioThreads.
+	 * <p>
+	 * With one or more I/O threads the rendered files are handed to an
+	 * AsyncOutputSink so rendering does not wait for the disk, which matters
+	 * most on slow or network file systems. Defaults to 0, the files are
+	 * written by the rendering threads.
+	 * 
+	 * @param ioThreads
+	 *            the number of threads writing the generated files.
+	 */
+	public void setIoThreads(int ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Getter method for metrics.
+	 * 
+	 * @return the collector shared by the runs, null if every run collects
+	 *         its own metrics.
+	 */
+	public GenerationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Setter method for metrics.
+	 * <p>
+	 * Lets the caller include its own measurements, such as the parse of the
+	 * model, in the metrics of the runs.
+	 * 
+	 * @param metrics
+	 *            the collector shared by the runs, null to collect the metrics
+	 *            of every run separately.
+	 */
+	public void setMetrics(GenerationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics of the last run.
+	 * 
+	 * @return the metrics, null before the first run.
+	 */
+	public GenerationMetrics getLastMetrics() {
+		return lastMetrics;
+	}
+
+	/**
+	 * Getter method for metricsReport.
+	 * 
+	 * @return the file the metrics report is written to, or null.
+	 */
+	public File getMetricsReport() {
+		return metricsReport;
+	}
+
+	/**
+	 * Setter method for metricsReport.
+	 * <p>
+	 * When set, every run writes a summary of its metrics to the file: the
+	 * wall time per phase, the p50 and p99 render time per entity, the
+	 * slowest entities, the bytes written and the bytes allocated.
+	 * 
+	 * @param metricsReport
+	 *            the report file, null for no report.
+	 */
+	public void setMetricsReport(File metricsReport) {
+		this.metricsReport = metricsReport;
+	}
+
+	/**
+	 * Getter method for outputSink.
+	 * 
+	 * @return the destination of the generated files, null for the default.
+	 */
+	public OutputSink getOutputSink() {
+		return outputSink;
+	}
+
+	/**
+	 * Setter method for outputSink.
+	 * <p>
+	 * The file names handed to the sink are relative to the output root. When
+	 * not set a FileOutputSink on the output root is used. Incremental
+	 * generation is only supported with a FileOutputSink, other sinks such as
+	 * an ArchiveOutputSink must receive every file.
+	 * 
+	 * @param outputSink
+	 *            the destination of the generated files.
+	 */
+	public void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink;
+	}
+
+	/**
+	 * Getter method for createDate.
+	 * 
+	 * @return the creation date of the generated classes, null for the time
+	 *         of the run.
+	 */
+	public Date getCreateDate() {
+		return createDate;
+	}
+
+	/**
+	 * Setter method for createDate.
+	 * <p>
+	 * Fixing the date makes the generated content reproducible so unchanged
+	 * files are not rewritten. When not set the time execute() is called is
+	 * used.
+	 * 
+	 * @param createDate
+	 *            the creation date of the generated classes.
+	 */
+	public void setCreateDate(Date createDate) {
+		this.createDate = createDate;
+	}
+
 	/**
 	 * Provides the Velocity Logger with initilization data as defined by the
 	 * LogSystem interface.
@@ -0,0 +1,214 @@
+package toshookan.domainmodel;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test case for running several VelocityDomainModelCodeGenerator instances
+ * at the same time.
+ * <p>
+ * Every generator has its own VelocityEngine, so generators with different
+ * models and template roots must not see each other's templates or
+ * contexts. The output of the concurrent runs is compared with the output of
+ * the same generators run one after the other on a single thread.
+ *
+ * @author <a href="mailto:justinrknowles@gmail.com">Justin R. Knowles</a>
+ */
+public class ConcurrentGeneratorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String TEMPLATE_ROOT = "src/main/resources/";
+
+    private static final String MARKER = "// generated from the modified templates";
+
+    private static final String[] VALUE_TYPES = { "String", "int", "long",
+            "boolean", "double", "Integer", "java.util.Date", "byte[]",
+            "java.util.List<String>" };
+
+    private static final Date CREATE_DATE = new Date(1420070400000L);
+
+    /*
+     * The number of times the generators are started together.
+     */
+    private static final int ROUNDS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Runs generators with different models and template roots concurrently
+     * and compares their output with sequential runs.
+     *
+     * @throws Exception
+     *             when the generation fails.
+     */
+    @Test
+    public void testConcurrentGeneratorsMatchSequentialRuns() throws Exception {
+
+        final String modifiedRoot = copyTemplates();
+        final DomainModel[] models = { createModel("com.a", 5),
+                createModel("com.b", 8), createModel("com.c", 3),
+                createModel("com.d", 6) };
+        final String[] templateRoots = { TEMPLATE_ROOT, modifiedRoot,
+                modifiedRoot, TEMPLATE_ROOT };
+        List<Map<String, String>> expected;
+        ExecutorService executor;
+        List<Future<Map<String, String>>> results;
+
+        expected = new ArrayList<Map<String, String>>();
+        for (int i = 0; i < models.length; ++i) {
+            expected.add(generate(models[i], templateRoots[i], 1, 0));
+        }
+        assertThat(expected.get(0).get("src/com/a/Entity0.java"),
+                not(containsString(MARKER)));
+        assertThat(expected.get(1).get("src/com/b/Entity0.java"),
+                containsString(MARKER));
+
+        executor = Executors.newFixedThreadPool(models.length);
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                final CyclicBarrier start = new CyclicBarrier(models.length);
+                results = new ArrayList<Future<Map<String, String>>>();
+                for (int i = 0; i < models.length; ++i) {
+                    final int index = i;
+                    results.add(executor
+                            .submit(new Callable<Map<String, String>>() {
+                                public Map<String, String> call()
+                                        throws Exception {
+                                    start.await();
+                                    return generate(models[index],
+                                            templateRoots[index], 4, 2);
+                                }
+                            }));
+                }
+                for (int i = 0; i < models.length; ++i) {
+                    assertEquals("generator " + i + " in round " + round,
+                            expected.get(i), results.get(i).get());
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generates a model into memory.
+     *
+     * @param model
+     *            the model.
+     * @param templateRoot
+     *            the directory of the templates.
+     * @param threads
+     *            the number of rendering threads.
+     * @param ioThreads
+     *            the number of I/O threads.
+     * @return the generated file names mapped to their content.
+     * @throws Exception
+     *             when the generation fails.
+     */
+    private static Map<String, String> generate(DomainModel model,
+            String templateRoot, int threads, int ioThreads) throws Exception {
+
+        VelocityDomainModelCodeGenerator generator;
+        MemoryOutputSink sink;
+        Map<String, String> files;
+
+        sink = new MemoryOutputSink();
+        generator = new VelocityDomainModelCodeGenerator(model, templateRoot,
+                threads);
+        generator.setCreateDate(CREATE_DATE);
+        generator.setIoThreads(ioThreads);
+        generator.setOutputSink(sink);
+        generator.execute();
+
+        files = new TreeMap<String, String>();
+        for (Map.Entry<String, byte[]> entry : sink.getFiles().entrySet()) {
+            files.put(entry.getKey(), new String(entry.getValue(), UTF_8));
+        }
+        assertFalse(files.isEmpty());
+        return files;
+    }
+
+    /**
+     * Creates a model whose entities cycle through the entity types and value
+     * types.
+     *
+     * @param packageName
+     *            the package of the entities.
+     * @param entities
+     *            the number of entities.
+     * @return the model.
+     */
+    private static DomainModel createModel(String packageName, int entities) {
+
+        DomainModel model;
+        Entity entity;
+        Value value;
+
+        model = new DomainModel();
+        for (int i = 0; i < entities; ++i) {
+            entity = new Entity();
+            entity.setName("Entity" + i);
+            entity.setPackageName(packageName);
+            entity.setDescription("Entity " + i + " of " + packageName + ".");
+            entity.setType((i % 3 == 1) ? "value" : "entity");
+            for (int j = 0; j <= i % VALUE_TYPES.length; ++j) {
+                value = new Value();
+                value.setName("value" + j);
+                value.setClassName(VALUE_TYPES[(i + j) % VALUE_TYPES.length]);
+                value.setDescription("Value " + j + " of entity " + i + ".");
+                entity.addValue(value);
+            }
+            model.addEntity(entity);
+        }
+        return model;
+    }
+
+    /**
+     * Copies the templates to a temporary directory and marks every
+     * generated file.
+     *
+     * @return the template root of the copy.
+     * @throws IOException
+     *             when the templates can not be copied.
+     */
+    private String copyTemplates() throws IOException {
+
+        File root = folder.newFolder("templates");
+
+        for (File template : new File(TEMPLATE_ROOT).listFiles()) {
+            if (template.getName().endsWith(".vm")) {
+                String content = new String(Files.readAllBytes(template
+                        .toPath()), UTF_8);
+                Path copy = new File(root, template.getName()).toPath();
+                Files.write(copy, (MARKER + "\n" + content).getBytes(UTF_8));
+            }
+        }
+        return root.getPath() + File.separator;
+    }
+}